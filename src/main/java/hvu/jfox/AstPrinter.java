@@ -31,6 +31,16 @@ public class AstPrinter implements Expr.Visitor<String> {
         return parenthesize("group", expr.expression);
     }
 
+    @Override
+    public String visitIndexExpr(Expr.Index expr) {
+        return parenthesize("index", expr.object, expr.index);
+    }
+
+    @Override
+    public String visitIndexSetExpr(Expr.IndexSet expr) {
+        return parenthesize("index-set", expr.object, expr.index, expr.value);
+    }
+
     @Override
     public String visitLiteralExpr(Expr.Literal expr) {
         if (expr.value == null) return "nil";
@@ -0,0 +1,53 @@
+package hvu.jfox;
+
+/**
+ * Polymorphic inline cache of a call site ({@link Expr.Call#shapes}): the last few callee shapes seen there, each
+ * already known to accept the site's number of arguments. A shape is whatever fixes a callee's arity
+ * independently of the context that created it: the declaration of a user function, the constructor of a class,
+ * or the class of a built-in function. Closures of one function thus share an entry, and the cache can live on
+ * the AST that every context shares without holding on to any context's values.
+ * <p>
+ * The array of shapes is never changed once published, so tasks racing on a site at worst drop an entry.
+ */
+final class CallSiteCache {
+    private static final int MAX_SHAPES = 4;
+    // The site has seen too many shapes to be worth guarding
+    static final Object[] MEGAMORPHIC = new Object[0];
+    // Shape of classes without a constructor, which all take no arguments
+    private static final Object NO_CONSTRUCTOR = new Object();
+
+    private CallSiteCache() {
+    }
+
+    /**
+     * Returns null for callees whose arity is not fixed by their shape (methods of built-in values).
+     */
+    static Object shapeOf(Object callee) {
+        return switch (callee) {
+            case FoxFunction function -> function.declaration();
+            case FoxClass klass -> klass.constructor() != null ? klass.constructor().declaration() : NO_CONSTRUCTOR;
+            case NativeMethod method -> null;
+            // Each built-in function is its own class
+            case FoxCallable function -> function.getClass();
+            default -> null;
+        };
+    }
+
+    static boolean contains(Object[] shapes, Object shape) {
+        if (shapes == null) return false;
+        for (Object cached : shapes) {
+            if (cached == shape) return true;
+        }
+        return false;
+    }
+
+    static Object[] add(Object[] shapes, Object shape) {
+        if (shapes == null) return new Object[]{shape};
+        if (shapes == MEGAMORPHIC || shapes.length == MAX_SHAPES) return MEGAMORPHIC;
+
+        Object[] grown = new Object[shapes.length + 1];
+        System.arraycopy(shapes, 0, grown, 0, shapes.length);
+        grown[shapes.length] = shape;
+        return grown;
+    }
+}
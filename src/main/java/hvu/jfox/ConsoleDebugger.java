@@ -0,0 +1,101 @@
+package hvu.jfox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * The {@code --debug} frontend: a command prompt on stdin and stderr, leaving stdout to the program.
+ */
+class ConsoleDebugger implements FoxDebugger.Frontend {
+    private static final String HELP = """
+            s, step             Run the next statement
+            c, continue         Run until the next breakpoint
+            b, break <line>     Set a breakpoint
+            d, delete <line>    Remove a breakpoint
+            l, locals           Show local variables
+            g, globals          Show global variables
+            p, print <name>     Show a variable
+            q, quit             Stop the program""";
+
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    ConsoleDebugger(BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    @Override
+    public FoxDebugger.Command paused(FoxDebugger debugger, FoxDebugger.Pause pause) {
+        for (; ; ) {
+            out.print("[line " + pause.line() + "] (debug) ");
+            out.flush();
+
+            String line;
+            try {
+                line = in.readLine();
+            } catch (IOException e) {
+                line = null;
+            }
+            // Without input, let the program finish
+            if (line == null) {
+                debugger.detach();
+                return FoxDebugger.Command.CONTINUE;
+            }
+
+            String[] words = line.trim().split("\\s+", 2);
+            String argument = words.length > 1 ? words[1] : null;
+            switch (words[0]) {
+                case "s", "step", "" -> {
+                    return FoxDebugger.Command.STEP;
+                }
+                case "c", "continue" -> {
+                    return FoxDebugger.Command.CONTINUE;
+                }
+                case "q", "quit" -> {
+                    return FoxDebugger.Command.STOP;
+                }
+                case "b", "break" -> {
+                    Integer target = lineNumber(argument);
+                    if (target == null) continue;
+                    int set = debugger.addBreakpoint(target);
+                    out.println(set < 0 ? "No statement at or after line " + target : "Breakpoint at line " + set);
+                }
+                case "d", "delete" -> {
+                    Integer target = lineNumber(argument);
+                    if (target == null) continue;
+                    if (!debugger.removeBreakpoint(target)) out.println("No breakpoint at line " + target);
+                }
+                case "l", "locals" -> show(pause.locals());
+                case "g", "globals" -> show(pause.globals());
+                case "p", "print" -> {
+                    if (argument == null) {
+                        out.println("Expect a variable name");
+                    } else if (pause.locals().containsKey(argument)) {
+                        out.println(Interpreter.stringify(pause.locals().get(argument)));
+                    } else if (pause.globals().containsKey(argument)) {
+                        out.println(Interpreter.stringify(pause.globals().get(argument)));
+                    } else {
+                        out.println("Undefined variable '" + argument + "'");
+                    }
+                }
+                default -> out.println(HELP);
+            }
+        }
+    }
+
+    private Integer lineNumber(String argument) {
+        try {
+            return Integer.parseInt(argument);
+        } catch (NumberFormatException e) {
+            out.println("Expect a line number");
+            return null;
+        }
+    }
+
+    private void show(Map<String, Object> variables) {
+        variables.forEach((name, value) -> out.println(name + " = " + Interpreter.stringify(value)));
+    }
+}
@@ -1,11 +1,20 @@
 package hvu.jfox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * A variable's value and whether it can be re-assigned. Globals are stored in one; so are locals that a closure
+ * captures (and constants), in which case it is the cell the closure shares with the declaring frame.
+ */
+class DefinedVariable implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
 
-class DefinedVariable {
     private Object value;
-    private final boolean editable;
+    private boolean editable;
 
     public DefinedVariable(Object value, boolean editable) {
         this.value = value;
@@ -23,81 +32,166 @@ class DefinedVariable {
     public boolean isEditable() {
         return editable;
     }
-}
-
-public class Environment {
-    final Environment enclosing;
-    private final Map<String, DefinedVariable> values = new HashMap<String, DefinedVariable>();
 
-    Environment() {
-        enclosing = null;
+    void redefine(Object value, boolean editable) {
+        this.value = value;
+        this.editable = editable;
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    void assign(Token name, Object value) {
+        if (!editable) {
+            throw new RuntimeError(name, "Cannot re-assign a constant variable: " + name.lexeme + ".");
+        }
+        this.value = value;
     }
+}
 
-    void define(String name, Object value, boolean editable) {
-        values.put(name, new DefinedVariable(value, editable));
+/**
+ * Global variables. Locals live in per-call frames, see {@link Resolver}.
+ * Cells are found by {@link Symbol#id} in an open-addressing table of this environment's own, compared by
+ * identity, so a lookup hashes no string and the table is only as large as the globals this context defines. A
+ * global keeps its cell for good: defining it again only updates the cell, so the cells found for a program's
+ * {@link GlobalNames} are cached for the rest of the context.
+ */
+public class Environment {
+    private static final int INITIAL_CAPACITY = 64;
+    // Programs whose cells are cached; a context seldom runs more than a prelude and a script
+    private static final int CACHED_PROGRAMS = 8;
+
+    // Name and cell of each global, side by side, in one array so that a reader never sees a name from one table
+    // with a cell from another; at most half full
+    private Object[] table = new Object[2 * INITIAL_CAPACITY];
+    private int size = 0;
+    // GlobalNames and the cells found for them by index, side by side, the program cached last first
+    private Object[] programs = new Object[2];
+
+    void define(Symbol name, Object value, boolean editable) {
+        DefinedVariable cell = cell(name);
+        if (cell != null) {
+            cell.redefine(value, editable);
+            return;
+        }
+
+        if ((size + 1) * 4 > table.length) grow();
+        insert(table, name, new DefinedVariable(value, editable));
+        size++;
     }
 
-    void define(String name, Object value) {
-        values.put(name, new DefinedVariable(value, true));
+    void define(Symbol name, Object value) {
+        define(name, value, true);
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme).getValue();
-        }
-
-        if (enclosing != null) {
-            return enclosing.get(name);
+        DefinedVariable cell = cell(name.symbol);
+        if (cell != null) {
+            return cell.getValue();
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    boolean has(String name) {
-        return values.containsKey(name);
+    /**
+     * The cell of {@code global}, which {@code name} refers to.
+     */
+    DefinedVariable cell(Token name, GlobalNames.Global global) {
+        Object[] programs = this.programs;
+        if (programs[0] == global.names()) {
+            DefinedVariable[] cells = (DefinedVariable[]) programs[1];
+            if (global.index() < cells.length) {
+                DefinedVariable cell = cells[global.index()];
+                if (cell != null) return cell;
+            }
+        }
+        return bind(name, global);
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            DefinedVariable definedVariable = values.get(name.lexeme);
-            if (definedVariable.isEditable()) {
-                definedVariable.setValue(value);
-                return;
-            } else {
-                throw new RuntimeError(name, "Cannot re-assign a constant variable: " + name.lexeme + ".");
+    private DefinedVariable bind(Token name, GlobalNames.Global global) {
+        DefinedVariable cell = cell(name.symbol);
+        if (cell == null) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+
+        DefinedVariable[] cells = cached(global.names());
+        if (global.index() >= cells.length) {
+            // The program's deferred bodies named more globals since
+            cells = Arrays.copyOf(cells, Math.max(global.index() + 1, global.names().size()));
+            programs[1] = cells;
+        }
+        cells[global.index()] = cell;
+        return cell;
+    }
+
+    /**
+     * The cells cached for {@code names}, moved first.
+     */
+    private DefinedVariable[] cached(GlobalNames names) {
+        int found = 0;
+        while (found < programs.length && programs[found] != null && programs[found] != names) found += 2;
+
+        DefinedVariable[] cells;
+        if (found < programs.length && programs[found] == names) {
+            cells = (DefinedVariable[]) programs[found + 1];
+        } else {
+            cells = new DefinedVariable[names.size()];
+            if (found == programs.length && programs.length < 2 * CACHED_PROGRAMS) {
+                programs = Arrays.copyOf(programs, programs.length + 2);
             }
+            // The least recent program falls out when the cache is full
+            found = Math.min(found, programs.length - 2);
         }
+        System.arraycopy(programs, 0, programs, 2, found);
+        programs[0] = names;
+        programs[1] = cells;
+        return cells;
+    }
+
+    boolean has(Symbol name) {
+        return cell(name) != null;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+    void assign(Token name, Object value) {
+        DefinedVariable cell = cell(name.symbol);
+        if (cell != null) {
+            cell.assign(name, value);
             return;
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Environment ancestor(Integer distance) {
-        Environment env = this;
-        for (int i = 0; i < distance; i++) {
-            env = env.enclosing;
+    DefinedVariable cell(Symbol name) {
+        Object[] table = this.table;
+        int mask = table.length - 2;
+        for (int i = index(name, mask); ; i = (i + 2) & mask) {
+            Object key = table[i];
+            if (key == name) return (DefinedVariable) table[i + 1];
+            if (key == null) return null;
         }
+    }
 
-        return env;
+    private static void insert(Object[] table, Symbol name, DefinedVariable cell) {
+        int mask = table.length - 2;
+        int i = index(name, mask);
+        while (table[i] != null) i = (i + 2) & mask;
+        table[i + 1] = cell;
+        table[i] = name;
     }
 
-    public Object getAt(Integer distance, Token name) {
-        return ancestor(distance).get(name);
+    // Even index of the name's first probe
+    private static int index(Symbol name, int mask) {
+        return (name.id * 0x9E3779B9 >>> 15) & mask;
     }
 
-    public Object getAt(Integer distance, String name) {
-        return ancestor(distance).values.get(name).getValue();
+    private void grow() {
+        Object[] grown = new Object[table.length * 2];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) insert(grown, (Symbol) table[i], (DefinedVariable) table[i + 1]);
+        }
+        table = grown;
     }
 
-    public void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).define(name.lexeme, value);
+    void forEach(BiConsumer<Symbol, DefinedVariable> action) {
+        Object[] table = this.table;
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) action.accept((Symbol) table[i], (DefinedVariable) table[i + 1]);
+        }
     }
 }
@@ -0,0 +1,101 @@
+package hvu.jfox;
+
+import java.io.PrintStream;
+
+enum LogLevel {
+    WARNING, ERROR
+}
+
+/**
+ * Diagnostics sink shared by every stage of a single run (Scanner, Parser, Resolver and Interpreter).
+ * Each {@link FoxContext} owns its own reporter, so concurrent runs never see each other's errors.
+ */
+public interface ErrorReporter {
+    void report(int line, String where, String message, LogLevel level);
+
+    void runtimeError(RuntimeError error);
+
+    void runtimeError(Throwable error);
+
+    boolean hadError();
+
+    boolean hadRuntimeError();
+
+    void reset();
+
+    default void error(int line, String message) {
+        report(line, "", message, LogLevel.ERROR);
+    }
+
+    default void error(Token token, String message) {
+        report(token.line, where(token), message, LogLevel.ERROR);
+    }
+
+    default void warning(Token token, String message) {
+        report(token.line, where(token), message, LogLevel.WARNING);
+    }
+
+    private static String where(Token token) {
+        if (token.type == TokenType.EOF) {
+            return " at end";
+        }
+        return " at '" + token.lexeme + "'";
+    }
+}
+
+class ConsoleErrorReporter implements ErrorReporter {
+    private final PrintStream err;
+    // Spawned tasks share their parent's reporter
+    private volatile boolean hadError = false;
+    private volatile boolean hadRuntimeError = false;
+
+    ConsoleErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    @Override
+    public void report(int line, String where, String message, LogLevel level) {
+        String levelText = "";
+        if (level == LogLevel.ERROR) {
+            levelText = "Error";
+        } else if (level == LogLevel.WARNING) {
+            levelText = "Warning";
+        }
+
+        err.println(levelText + " [Line: " + line + "]" + where + ": " + message);
+        hadError = true;
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+        err.println("\n[Line " + error.token.line + "] " + error.getMessage());
+        hadRuntimeError = true;
+    }
+
+    @Override
+    public void runtimeError(Throwable error) {
+        if (error instanceof StackOverflowError) {
+            err.println("Max recursion depth reached.");
+        } else {
+            // The error of a task nobody joined, see FoxTask
+            err.println("\n" + (error instanceof NativeError ? error.getMessage() : error));
+        }
+        hadRuntimeError = true;
+    }
+
+    @Override
+    public boolean hadError() {
+        return hadError;
+    }
+
+    @Override
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    @Override
+    public void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+}
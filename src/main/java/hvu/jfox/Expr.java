@@ -1,14 +1,26 @@
 package hvu.jfox;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
+// Serializable so that functions can be saved in heap snapshots
+abstract class Expr implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
 
     abstract <R> R accept(Visitor<R> visitor);
 
     static class Assign extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token name;
         final Expr value;
+        int slot = -1;
+        boolean captured = false;
+        int upvalue = -1;
+        GlobalNames.Global global = null;
 
         Assign(Token name, Expr value) {
             this.name = name;
@@ -22,9 +34,14 @@ abstract class Expr {
     }
 
     static class Binary extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Expr left;
         final Token operator;
         final Expr right;
+        boolean numeric = false;
+        boolean integral = false;
 
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -39,9 +56,13 @@ abstract class Expr {
     }
 
     static class Call extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        transient Object[] shapes = null;
 
         Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
@@ -56,6 +77,9 @@ abstract class Expr {
     }
 
     static class Get extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Expr object;
         final Token name;
 
@@ -71,6 +95,9 @@ abstract class Expr {
     }
 
     static class Grouping extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Expr expression;
 
         Grouping(Expr expression) {
@@ -83,7 +110,52 @@ abstract class Expr {
         }
     }
 
+    static class Index extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+    }
+
+    static class IndexSet extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+
+        IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexSetExpr(this);
+        }
+    }
+
     static class Literal extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Object value;
 
         Literal(Object value) {
@@ -97,9 +169,12 @@ abstract class Expr {
     }
 
     static class Logical extends Expr {
-        final Expr left;
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Expr left;
         final Token operator;
-        final Expr right;
+        Expr right;
 
         Logical(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -114,6 +189,9 @@ abstract class Expr {
     }
 
     static class Set extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Expr object;
         final Token name;
         final Expr value;
@@ -131,8 +209,15 @@ abstract class Expr {
     }
 
     static class Super extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token keyword;
         final Token method;
+        int upvalue = -1;
+        int thisSlot = -1;
+        boolean thisCaptured = false;
+        int thisUpvalue = -1;
 
         Super(Token keyword, Token method) {
             this.keyword = keyword;
@@ -146,7 +231,13 @@ abstract class Expr {
     }
 
     static class This extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token keyword;
+        int slot = -1;
+        boolean captured = false;
+        int upvalue = -1;
 
         This(Token keyword) {
             this.keyword = keyword;
@@ -159,8 +250,13 @@ abstract class Expr {
     }
 
     static class Unary extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token operator;
         final Expr right;
+        boolean numeric = false;
+        boolean integral = false;
 
         Unary(Token operator, Expr right) {
             this.operator = operator;
@@ -174,7 +270,14 @@ abstract class Expr {
     }
 
     static class Variable extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token name;
+        int slot = -1;
+        boolean captured = false;
+        int upvalue = -1;
+        GlobalNames.Global global = null;
 
         Variable(Token name) {
             this.name = name;
@@ -197,6 +300,10 @@ abstract class Expr {
 
         R visitGroupingExpr(Grouping expr);
 
+        R visitIndexExpr(Index expr);
+
+        R visitIndexSetExpr(IndexSet expr);
+
         R visitLiteralExpr(Literal expr);
 
         R visitLogicalExpr(Logical expr);
@@ -1,101 +1,118 @@
 package hvu.jfox;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
-
-enum LogLevel {
-    WARNING, ERROR
-}
+import java.util.function.Supplier;
 
 public class Fox {
-    private static boolean hadError = false;
-    private static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
-
-    private static void run(String input) {
-        Scanner scanner = new Scanner(input);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if (hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        if (hadError) return;
-        interpreter.interpret(statements);
-    }
-
-    static void error(int line, String message) {
-        report(line, "", message, LogLevel.ERROR);
-    }
-
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message, LogLevel.ERROR);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message, LogLevel.ERROR);
+    // sysexits.h EX_IOERR
+    private static final int SNAPSHOT_ERROR = 74;
+
+    static void runFile(FoxOptions options) throws IOException {
+        FoxContext context = newContext(options);
+        // Only building a snapshot
+        if (options.script == null) return;
+
+        if (options.pipeline) {
+            String source = readSource(options.script);
+            FoxContext.Status status = run(context, options, () -> context.runPipelined(source));
+            if (options.memoStats) context.printMemoStatistics(System.err);
+            if (status != FoxContext.Status.SUCCESS) System.exit(status.exitCode());
+            return;
         }
-    }
 
-    static void warning(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message, LogLevel.WARNING);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message, LogLevel.WARNING);
+        FoxProgram program = context.compile(readSource(options.script));
+        if (options.dumpTypes && program.isValid()) TypeInference.analyzeProgram(program.script(), System.err);
+        FoxCoverage coverage = options.coverage != null && program.isValid() ? FoxCoverage.attach(program) : null;
+        if (options.debug && program.isValid()) {
+            BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+            FoxDebugger debugger = new FoxDebugger(new ConsoleDebugger(input, System.err));
+            debugger.attach(program);
+            debugger.step();
         }
-    }
+        FoxContext.Status status = run(context, options, () -> context.run(program));
+        if (options.memoStats) context.printMemoStatistics(System.err);
 
-    private static void report(int line, String where, String message, LogLevel level) {
-        String levelText = "";
-        if (level == LogLevel.ERROR) {
-            levelText = "Error";
-        } else if (level == LogLevel.WARNING) {
-            levelText = "Warning";
+        if (coverage != null) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(options.coverage)))) {
+                coverage.writeLcov(options.script, out);
+            }
         }
 
-        System.err.println(levelText + " [Line: " + line + "]" + where + ": " + message);
-        hadError = true;
-    }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println("\n[Line " + error.token.line + "] " + error.getMessage());
-        hadRuntimeError = true;
-    }
-
-    static void runtimeError(Throwable error) {
-        if(error instanceof StackOverflowError) {
-            System.err.println("Max recursion depth reached.");
-        }
-        hadRuntimeError = true;
+        if (status != FoxContext.Status.SUCCESS) System.exit(status.exitCode());
     }
 
-    static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+    /**
+     * Runs {@code work} right away, or as a scheduled script if --budget limits it.
+     */
+    private static FoxContext.Status run(FoxContext context, FoxOptions options, Supplier<FoxContext.Status> work) {
+        if (options.budget == FoxScheduler.UNLIMITED) return work.get();
+        return new FoxScheduler(1, options.slice).submit(context, options.budget, work).await();
     }
 
-    static void runPrompt() throws IOException {
+    static void runPrompt(FoxOptions options) throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        FoxContext context = newContext(options);
 
         for (; ; ) {
             System.out.println("> ");
             String line = reader.readLine();
             if (line == null) break;
 
-            run(line);
+            context.run(line);
+
+            context.reporter().reset();
+        }
+    }
+
+    /**
+     * A context with the snapshot (--boot) loaded and the prelude run, saving a snapshot (--snapshot) if asked to.
+     */
+    private static FoxContext newContext(FoxOptions options) throws IOException {
+        FoxRuntime runtime = options.runtime();
+        FoxContext context = runtime.newContext(options.outputBufferSize);
+
+        if (options.boot != null) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(options.boot)))) {
+                context.loadSnapshot(in);
+            } catch (IOException e) {
+                snapshotError("Could not load snapshot " + options.boot, e);
+            }
+        }
+
+        if (options.prelude != null) {
+            FoxContext.Status status = context.run(readSource(options.prelude));
+            if (status != FoxContext.Status.SUCCESS) System.exit(status.exitCode());
+        }
 
-            hadError = false;
+        if (options.snapshot != null) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(options.snapshot)))) {
+                context.saveSnapshot(out);
+            } catch (IOException e) {
+                snapshotError("Could not save snapshot " + options.snapshot, e);
+            }
         }
+
+        return context;
+    }
+
+    private static void snapshotError(String message, IOException error) {
+        System.err.println(message + ": " + error.getMessage());
+        System.exit(SNAPSHOT_ERROR);
+    }
+
+    static String readSource(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        return new String(bytes, Charset.defaultCharset());
     }
 }
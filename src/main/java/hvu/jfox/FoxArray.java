@@ -0,0 +1,412 @@
+package hvu.jfox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Built-in growable array. Storage starts as a {@code long[]} and stays that way while every element is a number:
+ * integers as they are, doubles as their bits, with a bit per slot telling which is which, so arrays that mix both
+ * kinds stay unboxed too. The first element that is not a number widens it (once, permanently) to an
+ * {@code Object[]}.
+ */
+public class FoxArray implements FoxBuiltIn, FoxIndexable, FoxIterable, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final Symbol LENGTH = Symbol.intern("length");
+    private static final Symbol PUSH = Symbol.intern("push");
+    private static final Symbol POP = Symbol.intern("pop");
+    private static final Symbol EXTEND = Symbol.intern("extend");
+    private static final Symbol SLICE = Symbol.intern("slice");
+    private static final Symbol FILL = Symbol.intern("fill");
+    private static final Symbol RESIZE = Symbol.intern("resize");
+    private static final Symbol CLEAR = Symbol.intern("clear");
+    private static final Symbol SUM = Symbol.intern("sum");
+
+    // Exactly one of these is non-null; serialized without the spare capacity
+    private transient long[] numbers;
+    private transient Object[] values;
+    // Bit i is set when numbers[i] holds the bits of a double; null until a double is stored
+    private transient long[] doubles;
+    private int size = 0;
+
+    FoxArray(int capacity) {
+        this.numbers = new long[Math.max(capacity, DEFAULT_CAPACITY)];
+    }
+
+    static FoxArray of(List<Object> elements) {
+        FoxArray array = new FoxArray(elements.size());
+        for (Object element : elements) {
+            array.push(element);
+        }
+        return array;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        if (values != null) return values[index];
+        // Not a conditional expression, which would turn the long into a double
+        if (isDouble(index)) return Double.longBitsToDouble(numbers[index]);
+        return numbers[index];
+    }
+
+    void set(int index, Object value) {
+        if (numbers != null) {
+            switch (value) {
+                case Long number -> {
+                    numbers[index] = number;
+                    if (doubles != null) markDouble(index, false);
+                    return;
+                }
+                case Double number -> {
+                    numbers[index] = Double.doubleToRawLongBits(number);
+                    markDouble(index, true);
+                    return;
+                }
+                case null, default -> widen();
+            }
+        }
+        values[index] = value;
+    }
+
+    void push(Object value) {
+        ensureCapacity(size + 1);
+        size++;
+        set(size - 1, value);
+    }
+
+    private boolean isDouble(int index) {
+        return doubles != null && (doubles[index >> 6] & 1L << index) != 0;
+    }
+
+    private void markDouble(int index, boolean isDouble) {
+        if (doubles == null) doubles = new long[words(numbers.length)];
+        if (isDouble) {
+            doubles[index >> 6] |= 1L << index;
+        } else {
+            doubles[index >> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Stores {@code number} in every slot from {@code from} to {@code to}.
+     */
+    private void fillNumbers(int from, int to, Object number) {
+        boolean isDouble = number instanceof Double;
+        Arrays.fill(numbers, from, to, isDouble ? Double.doubleToRawLongBits((double) number) : (long) number);
+        if (!isDouble && doubles == null) return;
+        for (int i = from; i < to; i++) {
+            markDouble(i, isDouble);
+        }
+    }
+
+    private static int words(int capacity) {
+        return (capacity + 63) >> 6;
+    }
+
+    private static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    @Override
+    public Object getIndex(Token bracket, Object index) {
+        return get(checkIndex(bracket, index));
+    }
+
+    @Override
+    public void setIndex(Token bracket, Object index, Object value) {
+        set(checkIndex(bracket, index), value);
+    }
+
+    /**
+     * Goes by index, so elements pushed during the loop are visited too.
+     */
+    @Override
+    public FoxIterator iterator() {
+        return new FoxIterator() {
+            private int index = 0;
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                return index < size ? get(index++) : DONE;
+            }
+        };
+    }
+
+    @Override
+    public int arity(Symbol name) {
+        if (name == LENGTH || name == POP || name == CLEAR || name == SUM) return 0;
+        if (name == PUSH || name == EXTEND || name == FILL) return 1;
+        if (name == SLICE || name == RESIZE) return 2;
+        return -1;
+    }
+
+    @Override
+    public Object invoke0(Symbol name) {
+        if (name == LENGTH) return (long) size;
+        if (name == POP) return pop();
+        if (name == SUM) return sum();
+        if (name == CLEAR) {
+            clear();
+            return null;
+        }
+        return NO_METHOD;
+    }
+
+    @Override
+    public Object invoke1(Symbol name, Object first) {
+        if (name == PUSH) {
+            push(first);
+        } else if (name == EXTEND) {
+            extend(arrayArgument("extend", first));
+        } else if (name == FILL) {
+            fill(first);
+        } else {
+            return NO_METHOD;
+        }
+        return null;
+    }
+
+    @Override
+    public Object invoke2(Symbol name, Object first, Object second) {
+        if (name == SLICE) return slice(boundArgument("slice", first), boundArgument("slice", second));
+        if (name == RESIZE) {
+            resize(boundArgument("resize", first), second);
+            return null;
+        }
+        return NO_METHOD;
+    }
+
+    @Override
+    public String kind() {
+        return "array";
+    }
+
+    private Object pop() {
+        if (size == 0) throw new NativeError("Can not pop from an empty array.");
+
+        Object value = get(size - 1);
+        size--;
+        if (values != null) values[size] = null;
+        return value;
+    }
+
+    private void extend(FoxArray other) {
+        int otherSize = other.size;
+        ensureCapacity(size + otherSize);
+        if (numbers != null && other.numbers != null) {
+            System.arraycopy(other.numbers, 0, numbers, size, otherSize);
+            if (doubles != null || other.doubles != null) {
+                for (int i = 0; i < otherSize; i++) {
+                    markDouble(size + i, other.isDouble(i));
+                }
+            }
+        } else {
+            if (numbers != null) widen();
+            for (int i = 0; i < otherSize; i++) {
+                values[size + i] = other.get(i);
+            }
+        }
+        size += otherSize;
+    }
+
+    private FoxArray slice(int from, int to) {
+        if (from > to || to > size) throw new NativeError("Slice bounds out of range.");
+
+        FoxArray slice = new FoxArray(to - from);
+        if (numbers != null) {
+            System.arraycopy(numbers, from, slice.numbers, 0, to - from);
+            if (doubles != null) {
+                for (int i = from; i < to; i++) {
+                    if (isDouble(i)) slice.markDouble(i - from, true);
+                }
+            }
+        } else {
+            slice.widen();
+            System.arraycopy(values, from, slice.values, 0, to - from);
+        }
+        slice.size = to - from;
+        return slice;
+    }
+
+    private void fill(Object value) {
+        if (numbers != null && isNumber(value)) {
+            fillNumbers(0, size, value);
+            return;
+        }
+        if (numbers != null) widen();
+        Arrays.fill(values, 0, size, value);
+    }
+
+    private void resize(int newSize, Object value) {
+        if (newSize < size) {
+            if (values != null) Arrays.fill(values, newSize, size, null);
+            size = newSize;
+            return;
+        }
+
+        ensureCapacity(newSize);
+        int oldSize = size;
+        size = newSize;
+        if (numbers != null && isNumber(value)) {
+            fillNumbers(oldSize, newSize, value);
+            return;
+        }
+        if (numbers != null) widen();
+        Arrays.fill(values, oldSize, newSize, value);
+    }
+
+    private void clear() {
+        if (values != null) Arrays.fill(values, 0, size, null);
+        doubles = null;
+        size = 0;
+    }
+
+    /**
+     * An integer for an array of integers, a double as soon as one element is a double.
+     */
+    private Object sum() {
+        if (numbers != null && doubles == null) {
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                total += numbers[i];
+            }
+            return total;
+        }
+
+        long integers = 0;
+        double total = 0;
+        boolean fractional = false;
+        for (int i = 0; i < size; i++) {
+            switch (get(i)) {
+                case Long number -> integers += number;
+                case Double number -> {
+                    total += number;
+                    fractional = true;
+                }
+                default -> throw new NativeError("Can only sum an array of numbers.");
+            }
+        }
+        if (!fractional) return integers;
+        return total + integers;
+    }
+
+    private void ensureCapacity(int capacity) {
+        int current = numbers != null ? numbers.length : values.length;
+        if (capacity <= current) return;
+
+        int newCapacity = Math.max(capacity, current + (current >> 1));
+        if (numbers != null) {
+            numbers = Arrays.copyOf(numbers, newCapacity);
+            if (doubles != null) doubles = Arrays.copyOf(doubles, words(newCapacity));
+        } else {
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    private void widen() {
+        Object[] widened = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            widened[i] = get(i);
+        }
+        values = widened;
+        numbers = null;
+        doubles = null;
+    }
+
+    private int checkIndex(Token bracket, Object index) {
+        long number = switch (index) {
+            case Long integer -> integer;
+            case Double value when Interpreter.isInteger(value) -> (long) (double) value;
+            case null, default -> throw new RuntimeError(bracket, "Array index must be an integer");
+        };
+        if (number < 0 || number >= size) {
+            throw new RuntimeError(bracket, "Array index " + Interpreter.stringify(index) + " out of range");
+        }
+        return (int) number;
+    }
+
+    private static FoxArray arrayArgument(String method, Object argument) {
+        if (!(argument instanceof FoxArray array)) {
+            throw new NativeError(method + " expects an array.");
+        }
+        return array;
+    }
+
+    private int boundArgument(String method, Object argument) {
+        long number = switch (argument) {
+            case Long integer -> integer;
+            case Double value when Interpreter.isInteger(value) -> (long) (double) value;
+            case null, default -> -1;
+        };
+        if (number < 0 || number > Integer.MAX_VALUE) {
+            throw new NativeError(method + " expects non-negative integer bounds.");
+        }
+        return (int) number;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeBoolean(numbers != null);
+        for (int i = 0; i < size; i++) {
+            if (numbers != null) {
+                out.writeLong(numbers[i]);
+                out.writeBoolean(isDouble(i));
+            } else {
+                out.writeObject(values[i]);
+            }
+        }
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int capacity = Math.max(size, DEFAULT_CAPACITY);
+        if (in.readBoolean()) {
+            numbers = new long[capacity];
+            for (int i = 0; i < size; i++) {
+                numbers[i] = in.readLong();
+                if (in.readBoolean()) markDouble(i, true);
+            }
+        } else {
+            values = new Object[capacity];
+            for (int i = 0; i < size; i++) {
+                values[i] = in.readObject();
+            }
+        }
+    }
+
+    void copyFrom(FoxArray other, UnaryOperator<Object> copier) {
+        ensureCapacity(other.size);
+        if (other.numbers != null) {
+            System.arraycopy(other.numbers, 0, numbers, 0, other.size);
+            if (other.doubles != null) doubles = Arrays.copyOf(other.doubles, words(numbers.length));
+            size = other.size;
+            return;
+        }
+        for (int i = 0; i < other.size; i++) {
+            push(copier.apply(other.values[i]));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(Interpreter.stringify(get(i)));
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,169 @@
+package hvu.jfox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Runs many scripts in one JVM (--batch), so that they share its startup, the interpreter code the JIT already
+ * compiled, and the prelude: the prelude is compiled once and run in every script's own {@link FoxContext}, and
+ * a snapshot is read from disk once. Scripts are time-sliced by a {@link FoxScheduler} over a fixed number of
+ * threads, each with its stdout and stderr captured; the captures are written out in the order of the scripts,
+ * followed by a summary of the exit status and time of each.
+ */
+final class FoxBatch {
+    // sysexits.h EX_IOERR, for scripts that could not be read
+    private static final int READ_ERROR = 74;
+
+    private record Result(Path script, int exitCode, long nanos, byte[] out, byte[] err) {
+    }
+
+    private final FoxOptions options;
+    private final FoxRuntime runtime;
+    // Null without --prelude
+    private final FoxProgram prelude;
+    // Null without --boot
+    private final byte[] snapshot;
+
+    private FoxBatch(FoxOptions options, FoxRuntime runtime, FoxProgram prelude, byte[] snapshot) {
+        this.options = options;
+        this.runtime = runtime;
+        this.prelude = prelude;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Runs the batch and returns the exit code: 0 if every script succeeded, else the highest exit code of a
+     * script.
+     */
+    static int run(FoxOptions options) throws IOException {
+        FoxRuntime runtime = options.runtime();
+        FoxProgram prelude = null;
+        if (options.prelude != null) {
+            ErrorReporter reporter = new ConsoleErrorReporter(System.err);
+            prelude = runtime.compile(Fox.readSource(options.prelude), reporter);
+            if (!prelude.isValid()) return FoxContext.Status.COMPILE_ERROR.exitCode();
+        }
+        byte[] snapshot = options.boot != null ? Files.readAllBytes(Paths.get(options.boot)) : null;
+
+        List<Path> scripts = scripts(Paths.get(options.batch));
+        return new FoxBatch(options, runtime, prelude, snapshot).run(scripts);
+    }
+
+    /**
+     * The {@code .fox} files of a directory, by name, or the scripts listed in a manifest: one path per line,
+     * relative to the manifest, skipping blank lines and lines starting with {@code #}.
+     */
+    private static List<Path> scripts(Path batch) throws IOException {
+        if (Files.isDirectory(batch)) {
+            try (Stream<Path> files = Files.list(batch)) {
+                return files.filter(file -> file.getFileName().toString().endsWith(".fox")).sorted().toList();
+            }
+        }
+
+        Path directory = batch.toAbsolutePath().getParent();
+        List<Path> scripts = new ArrayList<>();
+        for (String line : Files.readAllLines(batch, Charset.defaultCharset())) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            scripts.add(directory.resolve(line));
+        }
+        return scripts;
+    }
+
+    // A script submitted to the scheduler, with the streams capturing its output
+    private record Pending(Path script, ByteArrayOutputStream out, ByteArrayOutputStream err, PrintStream errStream,
+                           FoxScheduler.Script handle) {
+    }
+
+    private int run(List<Path> scripts) throws IOException {
+        long start = System.nanoTime();
+        FoxScheduler scheduler = new FoxScheduler(options.threads, options.slice);
+        List<Pending> pending = new ArrayList<>();
+        for (Path script : scripts) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            PrintStream errStream = new PrintStream(err, true);
+            FoxContext context = runtime.newContext(new ConsoleErrorReporter(errStream), out);
+            FoxScheduler.Script handle = scheduler.submit(context, options.budget, () -> run(script, context, errStream));
+            pending.add(new Pending(script, out, err, errStream, handle));
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Pending script : pending) {
+            int exitCode;
+            try {
+                exitCode = script.handle().await().exitCode();
+            } catch (UncheckedIOException e) {
+                script.errStream().println(e.getMessage());
+                exitCode = READ_ERROR;
+            }
+            Result result = new Result(script.script(), exitCode, script.handle().elapsedNanos(),
+                    script.out().toByteArray(), script.err().toByteArray());
+            // Written as soon as every script before it is done
+            System.out.write(result.out());
+            System.out.flush();
+            System.err.write(result.err());
+            System.err.flush();
+            results.add(result);
+        }
+
+        summarize(results, System.nanoTime() - start);
+        int exitCode = 0;
+        for (Result result : results) {
+            exitCode = Math.max(exitCode, result.exitCode());
+        }
+        return exitCode;
+    }
+
+    /**
+     * Runs on the script's own thread. Throws {@link UncheckedIOException} if the script or snapshot can not be
+     * read.
+     */
+    private FoxContext.Status run(Path script, FoxContext context, PrintStream err) {
+        String source;
+        try {
+            source = Fox.readSource(script.toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + script + ": " + e.getMessage(), e);
+        }
+
+        if (snapshot != null) {
+            try {
+                context.loadSnapshot(new ByteArrayInputStream(snapshot));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load snapshot " + options.boot + ": " + e.getMessage(), e);
+            }
+        }
+        if (prelude != null) {
+            FoxContext.Status status = context.run(prelude);
+            if (status != FoxContext.Status.SUCCESS) return status;
+        }
+
+        FoxContext.Status status = options.pipeline ? context.runPipelined(source) : context.run(source);
+        if (options.memoStats) context.printMemoStatistics(err);
+        return status;
+    }
+
+    private void summarize(List<Result> results, long wallNanos) {
+        long totalNanos = 0;
+        int failed = 0;
+        for (Result result : results) {
+            String status = result.exitCode() == 0 ? "ok" : "exit " + result.exitCode();
+            System.err.printf("%-8s %10.1f ms  %s%n", status, result.nanos() / 1e6, result.script());
+            totalNanos += result.nanos();
+            if (result.exitCode() != 0) failed++;
+        }
+        System.err.printf("%d scripts, %d failed, %.1f ms in scripts, %.1f ms wall on %d threads%n",
+                results.size(), failed, totalNanos / 1e6, wallNanos / 1e6, options.threads);
+    }
+}
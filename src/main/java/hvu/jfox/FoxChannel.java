@@ -0,0 +1,77 @@
+package hvu.jfox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded FIFO channel between tasks. Values are passed by reference: ownership of a mutable value moves to the
+ * receiver, the sender is expected not to touch it afterward. Uses {@link ReentrantLock} rather than
+ * {@code synchronized} so blocked virtual threads release their carrier.
+ */
+public class FoxChannel {
+    private final Object[] items;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    FoxChannel(int capacity) {
+        this.items = new Object[capacity];
+    }
+
+    void send(Object value) {
+        lock.lock();
+        try {
+            while (count == items.length && !closed) {
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) throw new NativeError("Can not send on a closed channel.");
+
+            items[(head + count) % items.length] = value;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a value is available; returns nil once the channel is closed and drained.
+     */
+    Object receive() {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.awaitUninterruptibly();
+            }
+            if (count == 0) return null;
+
+            Object value = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<Channel capacity: " + items.length + ">";
+    }
+}
@@ -1,17 +1,30 @@
 package hvu.jfox;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
-public class FoxClass implements FoxCallable {
-    private final Map<String, FoxFunction> methods;
+public class FoxClass implements FoxCallable, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final Map<Symbol, FoxFunction> methods;
     private final FoxClass superclass;
     private final String name;
+    // Methods never change once the class exists, so the constructor is looked up once
+    private final FoxFunction constructor;
+    private final int arity;
+    // Most fields an instance had when its constructor returned. Racing tasks may lose an update, which only
+    // costs a later instance a resize
+    private int expectedFields = 0;
 
-    public FoxClass(String name, FoxClass superclass, Map<String, FoxFunction> methods) {
+    public FoxClass(String name, FoxClass superclass, Map<Symbol, FoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
         this.methods = methods;
+        this.constructor = getMethodByName(Symbol.CONSTRUCTOR);
+        this.arity = constructor != null ? constructor.arity() : 0;
     }
 
     @Override
@@ -21,33 +34,76 @@ public class FoxClass implements FoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        FoxInstance instance = new FoxInstance(this);
-        FoxFunction constructor = getMethodByName("constructor");
-        if(constructor != null) {
-            constructor.bind(instance).call(interpreter, arguments);
-        }
+        FoxInstance instance = instantiate();
+        if (constructor != null) constructor.invoke(interpreter, instance, arguments);
+        return constructed(instance);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        FoxInstance instance = instantiate();
+        if (constructor != null) constructor.invoke0(interpreter, instance);
+        return constructed(instance);
+    }
 
+    // With arguments, the arity check guarantees a constructor
+
+    @Override
+    public Object call1(Interpreter interpreter, Object first) {
+        FoxInstance instance = instantiate();
+        constructor.invoke1(interpreter, instance, first);
+        return constructed(instance);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object first, Object second) {
+        FoxInstance instance = instantiate();
+        constructor.invoke2(interpreter, instance, first, second);
+        return constructed(instance);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+        FoxInstance instance = instantiate();
+        constructor.invoke3(interpreter, instance, first, second, third);
+        return constructed(instance);
+    }
+
+    private FoxInstance instantiate() {
+        return new FoxInstance(this, expectedFields);
+    }
+
+    private FoxInstance constructed(FoxInstance instance) {
+        int fields = instance.fieldCount();
+        if (fields > expectedFields) expectedFields = fields;
         return instance;
     }
 
     @Override
     public int arity() {
-        FoxFunction initializer = getMethodByName("constructor");
+        return arity;
+    }
 
-        if(initializer != null) {
-            return initializer.arity();
-        }
+    FoxFunction constructor() {
+        return constructor;
+    }
+
+    FoxClass superclass() {
+        return superclass;
+    }
 
-        return 0;
+    Map<Symbol, FoxFunction> methods() {
+        return methods;
     }
 
     public String getName() {
         return name;
     }
 
-    public FoxFunction getMethodByName(String name) {
-        if(methods.containsKey(name)) {
-            return methods.get(name);
+    public final FoxFunction getMethodByName(Symbol name) {
+        FoxFunction method = methods.get(name);
+        if (method != null) {
+            return method;
         } else if (this.superclass != null) {
             return this.superclass.getMethodByName(name);
         }
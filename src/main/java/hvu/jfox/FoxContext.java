@@ -0,0 +1,122 @@
+package hvu.jfox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * An isolate: one interpreter with its own globals, output and diagnostics. A context must only be used by one
+ * thread at a time, but contexts share nothing mutable with each other, so thousands of them can run in
+ * parallel (e.g. one per virtual thread) against the same {@link FoxProgram}.
+ */
+public class FoxContext {
+    public enum Status {
+        SUCCESS(0), COMPILE_ERROR(65), RUNTIME_ERROR(70);
+
+        private final int exitCode;
+
+        Status(int exitCode) {
+            this.exitCode = exitCode;
+        }
+
+        public int exitCode() {
+            return exitCode;
+        }
+    }
+
+    private final FoxRuntime runtime;
+    private final ErrorReporter reporter;
+    private final FoxOutput out;
+    private final Interpreter interpreter;
+
+    FoxContext(FoxRuntime runtime, ErrorReporter reporter, FoxOutput out) {
+        this.runtime = runtime;
+        this.reporter = reporter;
+        this.out = out;
+        this.interpreter = new Interpreter(reporter, out);
+    }
+
+    public Status run(FoxProgram program) {
+        if (program.isValid()) {
+            try {
+                interpreter.interpret(program.statements(), program.script().frameSize());
+            } finally {
+                FoxTask.reportFinished(interpreter);
+                out.flush();
+            }
+        }
+
+        return status();
+    }
+
+    public Status run(String source) {
+        return run(compile(source));
+    }
+
+    /**
+     * Runs {@code source} while it is being compiled: each top-level statement runs as soon as it is parsed and
+     * resolved on another thread, see {@link PipelinedFrontEnd}. Output starts before the end of the source is
+     * even parsed, but a compile error only stops the script once the statements before it have run.
+     */
+    public Status runPipelined(String source) {
+        try (PipelinedFrontEnd frontEnd = runtime.compilePipelined(source, reporter)) {
+            interpreter.startScript(0);
+            for (PipelinedFrontEnd.Unit unit = frontEnd.next(); unit != null; unit = frontEnd.next()) {
+                if (!interpreter.interpretTopLevel(unit.statement(), unit.frameSize())) break;
+            }
+        } finally {
+            FoxTask.reportFinished(interpreter);
+            out.flush();
+        }
+
+        return status();
+    }
+
+    /**
+     * Compiles {@code source} with this context's runtime, reporting errors to this context.
+     */
+    public FoxProgram compile(String source) {
+        return runtime.compile(source, reporter);
+    }
+
+    /**
+     * Writes every global defined so far to {@code stream}, see {@link FoxSnapshot}.
+     */
+    public void saveSnapshot(OutputStream stream) throws IOException {
+        FoxSnapshot.write(interpreter, stream);
+    }
+
+    /**
+     * Defines the globals saved in a snapshot, as if the script that built them had run in this context.
+     */
+    public void loadSnapshot(InputStream stream) throws IOException {
+        FoxSnapshot.read(interpreter, stream);
+    }
+
+    /**
+     * Hits, misses and evictions of the cache of every memo function called in this context.
+     */
+    public void printMemoStatistics(PrintStream stream) {
+        for (MemoCache cache : interpreter.memoCaches) {
+            stream.println(cache);
+        }
+    }
+
+    /**
+     * Polls {@code script} at safepoints from now on, or stops polling if it is null.
+     */
+    void schedule(FoxScheduler.Script script) {
+        interpreter.schedule(script);
+    }
+
+    public ErrorReporter reporter() {
+        return reporter;
+    }
+
+    private Status status() {
+        if (reporter.hadError()) return Status.COMPILE_ERROR;
+        if (reporter.hadRuntimeError()) return Status.RUNTIME_ERROR;
+        return Status.SUCCESS;
+    }
+}
@@ -0,0 +1,259 @@
+package hvu.jfox;
+
+import java.io.PrintWriter;
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Statement and branch coverage of a {@link FoxProgram}. Like {@link FoxDebugger}, attaching wraps nodes of the
+ * AST in probes rather than teaching the interpreter about coverage; a probe bumps its own slot of a plain
+ * {@code long[]} and runs the node it wraps. Every statement gets a counter, and so do the conditions of
+ * {@code if} and {@code while} and both operands of {@code and}/{@code or}; a branch point was not taken as often
+ * as its condition ran minus the times its branch (the then branch, the loop body, the right operand) ran.
+ * <p>
+ * Attaching rewrites the program's AST in place and needs every body parsed, so the program must be compiled by
+ * a strict {@link FoxRuntime} and only be run by contexts whose coverage this one should count. Counts of tasks
+ * running the same code at the same time may be slightly low, counters are not atomic.
+ */
+public final class FoxCoverage {
+    private record Branch(int line, int condition, int taken) {
+    }
+
+    private final List<Integer> lines = new ArrayList<>();
+    private final List<Integer> statements = new ArrayList<>();
+    private final List<Branch> branches = new ArrayList<>();
+    // Installs the probe with the given counter in place of its node, once all counters are known
+    private final List<Consumer<long[]>> probes = new ArrayList<>();
+    private long[] counts;
+
+    private FoxCoverage() {
+    }
+
+    public static FoxCoverage attach(FoxProgram program) {
+        if (!program.isValid()) throw new IllegalArgumentException("Can not instrument a program with compile errors");
+
+        FoxCoverage coverage = new FoxCoverage();
+        coverage.walk(program.statements());
+        coverage.counts = new long[coverage.lines.size()];
+        for (Consumer<long[]> probe : coverage.probes) {
+            probe.accept(coverage.counts);
+        }
+        coverage.probes.clear();
+        return coverage;
+    }
+
+    private static final class StmtProbe extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Stmt statement;
+        private final long[] counts;
+        private final int counter;
+
+        StmtProbe(Stmt statement, long[] counts, int counter) {
+            this.statement = statement;
+            this.counts = counts;
+            this.counter = counter;
+            this.line = statement.line;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            counts[counter]++;
+            return statement.accept(visitor);
+        }
+
+        private Object writeReplace() {
+            return statement;
+        }
+    }
+
+    private static final class ExprProbe extends Expr {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Expr expression;
+        private final long[] counts;
+        private final int counter;
+
+        ExprProbe(Expr expression, long[] counts, int counter) {
+            this.expression = expression;
+            this.counts = counts;
+            this.counter = counter;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            counts[counter]++;
+            return expression.accept(visitor);
+        }
+
+        private Object writeReplace() {
+            return expression;
+        }
+    }
+
+    private int counter(int line) {
+        lines.add(line);
+        return lines.size() - 1;
+    }
+
+    private int count(Stmt statement, int line, Consumer<Stmt> parent) {
+        int counter = counter(line);
+        probes.add(counts -> parent.accept(new StmtProbe(statement, counts, counter)));
+        return counter;
+    }
+
+    private int count(Expr expression, int line, Consumer<Expr> parent) {
+        int counter = counter(line);
+        probes.add(counts -> parent.accept(new ExprProbe(expression, counts, counter)));
+        return counter;
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            int index = i;
+            walk(statements.get(i), stmt -> statements.set(index, stmt));
+        }
+    }
+
+    /**
+     * Returns the counter of {@code statement}.
+     */
+    private int walk(Stmt statement, Consumer<Stmt> parent) {
+        int counter = count(statement, statement.line, parent);
+        statements.add(counter);
+
+        switch (statement) {
+            case Stmt.Block block -> walk(block.statements);
+            case Stmt.Expression stmt -> walk(stmt.expression);
+            case Stmt.Var stmt -> {
+                if (stmt.initializer != null) walk(stmt.initializer);
+            }
+            case Stmt.Return stmt -> {
+                if (stmt.expression != null) walk(stmt.expression);
+            }
+            case Stmt.If stmt -> {
+                walk(stmt.condition);
+                int condition = count(stmt.condition, stmt.line, expr -> stmt.condition = expr);
+                // A missing else branch is only counted through the condition
+                int taken = walk(stmt.thenBranch, branch -> stmt.thenBranch = branch);
+                branches.add(new Branch(stmt.line, condition, taken));
+                if (stmt.elseBranch != null) walk(stmt.elseBranch, branch -> stmt.elseBranch = branch);
+            }
+            case Stmt.While stmt -> {
+                walk(stmt.condition);
+                int condition = count(stmt.condition, stmt.line, expr -> stmt.condition = expr);
+                int taken = walk(stmt.body, body -> stmt.body = body);
+                branches.add(new Branch(stmt.line, condition, taken));
+                if (stmt.increment != null) walk(stmt.increment);
+            }
+            case Stmt.ForIn stmt -> {
+                walk(stmt.iterable);
+                walk(stmt.body, body -> stmt.body = body);
+            }
+            case Stmt.Yield stmt -> {
+                if (stmt.value != null) walk(stmt.value);
+            }
+            case Stmt.Function function -> walkFunction(function);
+            case Stmt.Class klass -> {
+                for (Stmt.Function method : klass.methods) {
+                    walkFunction(method);
+                }
+            }
+            default -> {
+            }
+        }
+        return counter;
+    }
+
+    private void walkFunction(Stmt.Function function) {
+        FunctionBody.Code code = function.body.resolvedCode();
+        if (code == null) {
+            throw new IllegalArgumentException("Can not instrument deferred function bodies, compile the program strictly");
+        }
+        walk(code.statements());
+    }
+
+    private void walk(Expr expression) {
+        switch (expression) {
+            case Expr.Logical expr -> {
+                walk(expr.left);
+                walk(expr.right);
+                int line = expr.operator.line;
+                int condition = count(expr.left, line, left -> expr.left = left);
+                int taken = count(expr.right, line, right -> expr.right = right);
+                branches.add(new Branch(line, condition, taken));
+            }
+            case Expr.Assign expr -> walk(expr.value);
+            case Expr.Binary expr -> {
+                walk(expr.left);
+                walk(expr.right);
+            }
+            case Expr.Call expr -> {
+                walk(expr.callee);
+                expr.arguments.forEach(this::walk);
+            }
+            case Expr.Get expr -> walk(expr.object);
+            case Expr.Grouping expr -> walk(expr.expression);
+            case Expr.Index expr -> {
+                walk(expr.object);
+                walk(expr.index);
+            }
+            case Expr.IndexSet expr -> {
+                walk(expr.object);
+                walk(expr.index);
+                walk(expr.value);
+            }
+            case Expr.Set expr -> {
+                walk(expr.object);
+                walk(expr.value);
+            }
+            case Expr.Unary expr -> walk(expr.right);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Writes the counts as an LCOV tracefile for {@code sourceName}. A line counts as often as the statement
+     * starting on it that ran most; each branch point reports its taken and not taken branch.
+     */
+    public void writeLcov(String sourceName, PrintWriter out) {
+        TreeMap<Integer, Long> lineCounts = new TreeMap<>();
+        for (int counter : statements) {
+            lineCounts.merge(lines.get(counter), counts[counter], Math::max);
+        }
+
+        out.println("TN:");
+        out.println("SF:" + sourceName);
+
+        int block = 0;
+        int branchesHit = 0;
+        for (Branch branch : branches) {
+            long evaluated = counts[branch.condition()];
+            long taken = counts[branch.taken()];
+            String prefix = "BRDA:" + branch.line() + "," + block++ + ",";
+            // As LCOV has it, branches of a condition that never ran are "-"
+            out.println(prefix + "0," + (evaluated == 0 ? "-" : taken));
+            out.println(prefix + "1," + (evaluated == 0 ? "-" : evaluated - taken));
+            if (taken > 0) branchesHit++;
+            if (evaluated - taken > 0) branchesHit++;
+        }
+        out.println("BRF:" + branches.size() * 2);
+        out.println("BRH:" + branchesHit);
+
+        int linesHit = 0;
+        for (var entry : lineCounts.entrySet()) {
+            out.println("DA:" + entry.getKey() + "," + entry.getValue());
+            if (entry.getValue() > 0) linesHit++;
+        }
+        out.println("LF:" + lineCounts.size());
+        out.println("LH:" + linesHit);
+        out.println("end_of_record");
+        out.flush();
+    }
+}
@@ -0,0 +1,294 @@
+package hvu.jfox;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Line breakpoints and stepping for a {@link FoxProgram}. Attaching indexes every statement by line, and only the
+ * statements that should pause are replaced in their parent by a {@link Probe}, which hands control to the
+ * {@link Frontend} before running the statement it wraps. A breakpoint wraps the first statement of its line;
+ * stepping wraps every statement until the frontend continues. The interpreter knows nothing about any of this, so
+ * a program with no debugger attached runs exactly the code it always did.
+ * <p>
+ * Attaching rewrites the program's AST in place: a debugged program should only be run by one context, and must be
+ * compiled by a strict {@link FoxRuntime}, since deferred bodies have no statements to wrap yet. Tasks spawned by
+ * the program pause too, one at a time.
+ */
+public final class FoxDebugger {
+    public enum Command {
+        STEP, CONTINUE, STOP
+    }
+
+    public interface Frontend {
+        /**
+         * Called before a statement runs. The frontend may add and remove breakpoints, then tells how to go on.
+         */
+        Command paused(FoxDebugger debugger, Pause pause);
+    }
+
+    /**
+     * A statement about to run, with the variables visible to it.
+     */
+    public static final class Pause {
+        private final Site site;
+        private final Interpreter interpreter;
+
+        private Pause(Site site, Interpreter interpreter) {
+            this.site = site;
+            this.interpreter = interpreter;
+        }
+
+        public int line() {
+            return site.line;
+        }
+
+        /**
+         * Locals in scope and variables captured from enclosing functions, innermost last.
+         */
+        public Map<String, Object> locals() {
+            Map<String, Object> locals = new LinkedHashMap<>();
+            String[] upvalueNames = site.code.upvalueNames();
+            DefinedVariable[] upvalues = interpreter.upvalues();
+            for (int i = 0; i < upvalueNames.length && i < upvalues.length; i++) {
+                locals.put(upvalueNames[i], upvalues[i].getValue());
+            }
+
+            Object[] frame = interpreter.frame();
+            for (int slot : site.visible) {
+                Object value = frame[slot];
+                locals.put(site.code.slotNames()[slot], value instanceof DefinedVariable cell ? cell.getValue() : value);
+            }
+            return locals;
+        }
+
+        /**
+         * Globals defined so far, natives excluded.
+         */
+        public Map<String, Object> globals() {
+            Set<String> natives = NativeFunctionFactory.builtInFunctionNames();
+            Map<String, Object> globals = new TreeMap<>();
+            interpreter.globals.forEach((name, variable) -> {
+                if (!natives.contains(name.name)) globals.put(name.name, variable.getValue());
+            });
+            return globals;
+        }
+    }
+
+    /**
+     * Where a statement sits in the AST, and what a probe needs to know about it.
+     */
+    private static final class Site {
+        final Stmt statement;
+        final int line;
+        // Puts a statement in the place of this one in its parent
+        final Consumer<Stmt> parent;
+        final FunctionBody.Code code;
+        // Slots of the locals declared before the statement in enclosing blocks
+        final int[] visible;
+        Probe probe;
+
+        Site(Stmt statement, Consumer<Stmt> parent, FunctionBody.Code code, int[] visible) {
+            this.statement = statement;
+            this.line = statement.line;
+            this.parent = parent;
+            this.code = code;
+            this.visible = visible;
+        }
+    }
+
+    private static final class Probe extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient FoxDebugger debugger;
+        private final transient Site site;
+
+        Probe(FoxDebugger debugger, Site site) {
+            this.debugger = debugger;
+            this.site = site;
+            this.line = site.line;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            if (visitor instanceof Interpreter interpreter) debugger.reached(site, interpreter);
+            return site.statement.accept(visitor);
+        }
+
+        // Snapshots taken while a debugger is attached hold the plain statement
+        private Object writeReplace() {
+            return site.statement;
+        }
+    }
+
+    private final Frontend frontend;
+    private final List<Site> sites = new ArrayList<>();
+    // First statement of each line
+    private final TreeMap<Integer, Site> lines = new TreeMap<>();
+    private final TreeMap<Integer, Site> breakpoints = new TreeMap<>();
+    private boolean stepping = false;
+
+    public FoxDebugger(Frontend frontend) {
+        this.frontend = frontend;
+    }
+
+    public synchronized void attach(FoxProgram program) {
+        if (!program.isValid()) throw new IllegalArgumentException("Can not debug a program with compile errors");
+        if (!sites.isEmpty()) throw new IllegalStateException("Debugger is already attached");
+
+        FunctionBody.Code script = program.script();
+        walk(script.statements(), script, new ArrayList<>());
+    }
+
+    /**
+     * Restores every wrapped statement. The program runs at full speed again, even if it is still running.
+     */
+    public synchronized void detach() {
+        for (Site site : sites) {
+            unwrap(site);
+        }
+        sites.clear();
+        lines.clear();
+        breakpoints.clear();
+        stepping = false;
+    }
+
+    /**
+     * Pauses before the first statement on {@code line}, or on the next line that has one.
+     * Returns the line the breakpoint was set on, or -1 if there is no statement at or after {@code line}.
+     */
+    public synchronized int addBreakpoint(int line) {
+        Map.Entry<Integer, Site> entry = lines.ceilingEntry(line);
+        if (entry == null) return -1;
+
+        breakpoints.put(entry.getKey(), entry.getValue());
+        wrap(entry.getValue());
+        return entry.getKey();
+    }
+
+    public synchronized boolean removeBreakpoint(int line) {
+        Site site = breakpoints.remove(line);
+        if (site == null) return false;
+
+        if (!stepping) unwrap(site);
+        return true;
+    }
+
+    public synchronized Set<Integer> breakpoints() {
+        return Set.copyOf(breakpoints.keySet());
+    }
+
+    /**
+     * Pauses before the next statement that runs, e.g. to start a program paused.
+     */
+    public synchronized void step() {
+        stepping = true;
+        for (Site site : sites) {
+            wrap(site);
+        }
+    }
+
+    private synchronized void reached(Site site, Interpreter interpreter) {
+        // A probe unwrapped while another thread was paused
+        if (site.probe == null) return;
+
+        // Show what the program printed up to here
+        interpreter.out.flush();
+
+        switch (frontend.paused(this, new Pause(site, interpreter))) {
+            case STEP -> step();
+            case CONTINUE -> {
+                if (!stepping) return;
+                stepping = false;
+                for (Site other : sites) {
+                    if (breakpoints.get(other.line) != other) unwrap(other);
+                }
+            }
+            case STOP -> {
+                detach();
+                throw new RuntimeError(new Token(TokenType.EOF, "", site.line), "Stopped by the debugger");
+            }
+        }
+    }
+
+    private void wrap(Site site) {
+        if (site.probe != null) return;
+        site.probe = new Probe(this, site);
+        site.parent.accept(site.probe);
+    }
+
+    private void unwrap(Site site) {
+        if (site.probe == null) return;
+        site.parent.accept(site.statement);
+        site.probe = null;
+    }
+
+    private void walk(List<Stmt> statements, FunctionBody.Code code, List<Integer> visible) {
+        int declaredBefore = visible.size();
+        for (int i = 0; i < statements.size(); i++) {
+            int index = i;
+            Stmt statement = statements.get(i);
+            index(statement, stmt -> statements.set(index, stmt), code, visible);
+
+            int slot = switch (statement) {
+                case Stmt.Var var -> var.slot;
+                case Stmt.Function function -> function.slot;
+                case Stmt.Class klass -> klass.slot;
+                default -> -1;
+            };
+            if (slot >= 0) visible.add(slot);
+        }
+        visible.subList(declaredBefore, visible.size()).clear();
+    }
+
+    private void index(Stmt statement, Consumer<Stmt> parent, FunctionBody.Code code, List<Integer> visible) {
+        if (statement == null) return;
+
+        Site site = new Site(statement, parent, code, visible.stream().mapToInt(Integer::intValue).toArray());
+        sites.add(site);
+        lines.putIfAbsent(site.line, site);
+
+        switch (statement) {
+            case Stmt.Block block -> walk(block.statements, code, visible);
+            case Stmt.If stmt -> {
+                index(stmt.thenBranch, branch -> stmt.thenBranch = branch, code, visible);
+                index(stmt.elseBranch, branch -> stmt.elseBranch = branch, code, visible);
+            }
+            case Stmt.While stmt -> index(stmt.body, body -> stmt.body = body, code, visible);
+            case Stmt.ForIn stmt -> {
+                // The loop variable is only visible in the body
+                visible.add(stmt.slot);
+                index(stmt.body, body -> stmt.body = body, code, visible);
+                visible.removeLast();
+            }
+            case Stmt.Function function -> walkFunction(function);
+            case Stmt.Class klass -> {
+                for (Stmt.Function method : klass.methods) {
+                    walkFunction(method);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void walkFunction(Stmt.Function function) {
+        FunctionBody.Code code = function.body.resolvedCode();
+        if (code == null) {
+            throw new IllegalArgumentException("Can not debug deferred function bodies, compile the program strictly");
+        }
+
+        // `this` and the parameters
+        List<Integer> visible = new ArrayList<>();
+        for (int slot = 0; slot < code.captured().length; slot++) {
+            visible.add(slot);
+        }
+        walk(code.statements(), code, visible);
+    }
+}
@@ -1,24 +1,143 @@
 package hvu.jfox;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.List;
 
-public class FoxFunction implements FoxCallable {
+public class FoxFunction implements FoxCallable, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     private final Stmt.Function declaration;
-    private final Environment closure;
+    // Cells of the enclosing variables the body uses, in the order of declaration.captures
+    private final DefinedVariable[] upvalues;
+    // Set on bound methods, goes to slot 0 of the frame
+    private final FoxInstance receiver;
+    // Results of a memo function, created on its first call
+    private transient MemoCache memo;
+
+    FoxFunction(Stmt.Function declaration, DefinedVariable[] upvalues) {
+        this(declaration, upvalues, null);
+    }
 
-    FoxFunction(Stmt.Function declaration, Environment closure) {
+    private FoxFunction(Stmt.Function declaration, DefinedVariable[] upvalues, FoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i), true);
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object first) {
+        return invoke1(interpreter, receiver, first);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object first, Object second) {
+        return invoke2(interpreter, receiver, first, second);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+        return invoke3(interpreter, receiver, first, second, third);
+    }
+
+    /*
+     * Calls with an explicit receiver, which FoxClass uses to run a constructor on a new instance without binding
+     * it first.
+     */
+
+    Object invoke(Interpreter interpreter, FoxInstance receiver, List<Object> arguments) {
+        FunctionBody.Code code = declaration.body.code(declaration, interpreter.reporter);
+        if (declaration.memo) return memoized(interpreter, code, arguments.toArray());
+        Object[] frame = newFrame(code, receiver);
+        for (int i = 0; i < arguments.size(); i++) {
+            setParameter(code, frame, i, arguments.get(i));
         }
+        return execute(interpreter, code, frame);
+    }
+
+    Object invoke0(Interpreter interpreter, FoxInstance receiver) {
+        FunctionBody.Code code = declaration.body.code(declaration, interpreter.reporter);
+        if (declaration.memo) return memoized(interpreter, code);
+        return execute(interpreter, code, newFrame(code, receiver));
+    }
+
+    Object invoke1(Interpreter interpreter, FoxInstance receiver, Object first) {
+        FunctionBody.Code code = declaration.body.code(declaration, interpreter.reporter);
+        if (declaration.memo) return memoized(interpreter, code, first);
+        Object[] frame = newFrame(code, receiver);
+        setParameter(code, frame, 0, first);
+        return execute(interpreter, code, frame);
+    }
+
+    Object invoke2(Interpreter interpreter, FoxInstance receiver, Object first, Object second) {
+        FunctionBody.Code code = declaration.body.code(declaration, interpreter.reporter);
+        if (declaration.memo) return memoized(interpreter, code, first, second);
+        Object[] frame = newFrame(code, receiver);
+        setParameter(code, frame, 0, first);
+        setParameter(code, frame, 1, second);
+        return execute(interpreter, code, frame);
+    }
+
+    Object invoke3(Interpreter interpreter, FoxInstance receiver, Object first, Object second, Object third) {
+        FunctionBody.Code code = declaration.body.code(declaration, interpreter.reporter);
+        if (declaration.memo) return memoized(interpreter, code, first, second, third);
+        Object[] frame = newFrame(code, receiver);
+        setParameter(code, frame, 0, first);
+        setParameter(code, frame, 1, second);
+        setParameter(code, frame, 2, third);
+        return execute(interpreter, code, frame);
+    }
+
+    /**
+     * Calls a memo function (never a method, see Purity) through its cache.
+     */
+    private Object memoized(Interpreter interpreter, FunctionBody.Code code, Object... arguments) {
+        Object key = MemoCache.key(arguments);
+        if (key != null) {
+            if (memo == null) memo = interpreter.newMemoCache(declaration.name.lexeme);
+            Object cached = memo.get(key);
+            if (cached != null) return MemoCache.unwrap(cached);
+        }
+
+        Object[] frame = newFrame(code, null);
+        for (int i = 0; i < arguments.length; i++) {
+            setParameter(code, frame, i, arguments[i]);
+        }
+        Object result = execute(interpreter, code, frame);
+
+        if (key != null) memo.put(key, result);
+        return result;
+    }
+
+    private static Object[] newFrame(FunctionBody.Code code, FoxInstance receiver) {
+        Object[] frame = new Object[code.frameSize()];
+        if (receiver != null) {
+            frame[0] = code.captured()[0] ? new DefinedVariable(receiver, false) : receiver;
+        }
+        return frame;
+    }
+
+    private static void setParameter(FunctionBody.Code code, Object[] frame, int index, Object value) {
+        int slot = code.firstParameter() + index;
+        frame[slot] = code.captured()[slot] ? new DefinedVariable(value, true) : value;
+    }
+
+    private Object execute(Interpreter interpreter, FunctionBody.Code code, Object[] frame) {
+        // The body only starts running when the generator is asked for its first element
+        if (code.generator()) return new FoxGenerator(interpreter, this, code, frame);
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBody(code.statements(), frame, upvalues);
         } catch (Return returnValue) {
             return returnValue.value;
         }
@@ -36,9 +155,26 @@ public class FoxFunction implements FoxCallable {
         return "<function " + declaration.name.lexeme + ">";
     }
 
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
+    DefinedVariable[] upvalues() {
+        return upvalues;
+    }
+
+    FoxInstance receiver() {
+        return receiver;
+    }
+
+    /**
+     * Same function over other cells (and receiver), used to copy closures into a spawned task.
+     */
+    FoxFunction withCaptures(DefinedVariable[] upvalues, FoxInstance receiver) {
+        return new FoxFunction(declaration, upvalues, receiver);
+    }
+
     public FoxFunction bind(FoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new FoxFunction(declaration, environment);
+        return new FoxFunction(declaration, upvalues, instance);
     }
 }
@@ -0,0 +1,238 @@
+package hvu.jfox;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What calling a function that {@code yield}s returns. The body runs lazily, one element at a time, on a virtual
+ * thread of its own with an interpreter of its own over the caller's globals: asking for an element lets the body
+ * run up to its next {@code yield} while the caller waits, so only one of them ever runs and a generator over an
+ * endless sequence holds one element at most.
+ * <p>
+ * A {@code for (x in ...)} loop that ends early closes the generator, which unwinds the body parked in its
+ * {@code yield}. The body's thread only refers to the {@link Body}, not to this handle, so a generator other code
+ * drops half-way is closed once the handle is collected.
+ */
+public final class FoxGenerator implements FoxBuiltIn, FoxIterable, FoxIterator {
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final Symbol HAS_NEXT = Symbol.intern("hasNext");
+    private static final Symbol NEXT = Symbol.intern("next");
+    private static final Symbol CLOSE = Symbol.intern("close");
+
+    private final Body body;
+
+    FoxGenerator(Interpreter caller, FoxFunction function, FunctionBody.Code code, Object[] frame) {
+        this.body = new Body(caller, function, code, frame);
+        CLEANER.register(this, body::close);
+    }
+
+    @Override
+    public FoxIterator iterator() {
+        return this;
+    }
+
+    /**
+     * Runs the body up to its next yield and returns the value, or {@link #DONE} once the body returned. An
+     * error of the body is thrown here, once.
+     */
+    @Override
+    public Object next(Interpreter interpreter) {
+        try {
+            return body.next();
+        } finally {
+            // The cleaner must not close the body while it runs for us
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+     * Stops a body parked in a yield, or one that never started. Unwinding runs no Fox code, so this waits for it.
+     */
+    @Override
+    public void close() {
+        body.close();
+    }
+
+    @Override
+    public int arity(Symbol name) {
+        return name == HAS_NEXT || name == NEXT || name == CLOSE ? 0 : -1;
+    }
+
+    @Override
+    public Object invoke0(Symbol name) {
+        if (name == HAS_NEXT) {
+            if (body.lookahead == Body.NONE) body.lookahead = next(body.interpreter);
+            return body.lookahead != DONE;
+        }
+        if (name == NEXT) {
+            Object element = next(body.interpreter);
+            if (element == DONE) throw new NativeError("Generator is exhausted.");
+            return element;
+        }
+        if (name == CLOSE) {
+            close();
+            return null;
+        }
+        return NO_METHOD;
+    }
+
+    @Override
+    public Object invoke1(Symbol name, Object first) {
+        return NO_METHOD;
+    }
+
+    @Override
+    public Object invoke2(Symbol name, Object first, Object second) {
+        return NO_METHOD;
+    }
+
+    @Override
+    public String kind() {
+        return "generator";
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + body.function.declaration().name.lexeme + ">";
+    }
+
+    /**
+     * The state the caller and the body's thread share.
+     */
+    static final class Body {
+        private enum State {
+            // Body not started, running, parked in a yield, returned (or failed, or closed)
+            NEW, RUNNING, SUSPENDED, DONE
+        }
+
+        /**
+         * Unwinds the body of a closed generator from its yield.
+         */
+        private static final class Closed extends RuntimeException {
+            static final Closed INSTANCE = new Closed();
+
+            private Closed() {
+                super(null, null, false, false);
+            }
+        }
+
+        private static final Object NONE = new Object();
+
+        private final FoxFunction function;
+        private final FunctionBody.Code code;
+        private final Object[] frame;
+        private final Interpreter interpreter;
+        // The caller and the body take turns, each one waiting for the state the other one sets
+        private volatile State state = State.NEW;
+        private volatile boolean closing = false;
+        private volatile Thread caller;
+        private Thread thread;
+        // The value yielded last, and the error the body failed with, published by the write of state
+        private Object value;
+        private Throwable failure;
+        // Element fetched ahead by hasNext()
+        private Object lookahead = NONE;
+
+        private Body(Interpreter caller, FoxFunction function, FunctionBody.Code code, Object[] frame) {
+            this.function = function;
+            this.code = code;
+            this.frame = frame;
+            this.interpreter = new Interpreter(caller, this);
+        }
+
+        private Object next() {
+            if (lookahead != NONE) {
+                Object element = lookahead;
+                lookahead = NONE;
+                return element;
+            }
+
+            switch (state) {
+                case RUNNING -> throw new NativeError("Generator is already running.");
+                case DONE -> {
+                    return DONE;
+                }
+                case NEW -> {
+                    caller = Thread.currentThread();
+                    state = State.RUNNING;
+                    thread = Thread.ofVirtual().name("fox-generator").start(this::run);
+                }
+                case SUSPENDED -> {
+                    caller = Thread.currentThread();
+                    state = State.RUNNING;
+                    LockSupport.unpark(thread);
+                }
+            }
+            State reached = await(State.RUNNING);
+
+            if (reached == State.SUSPENDED) {
+                Object element = value;
+                value = null;
+                return element;
+            }
+            Throwable error = failure;
+            failure = null;
+            if (error instanceof RuntimeException exception) throw exception;
+            if (error instanceof Error exception) throw exception;
+            if (error != null) throw new IllegalStateException(error);
+            return DONE;
+        }
+
+        /**
+         * Parks until the other side changes the state from {@code current}, or the body is closed while suspended.
+         */
+        private State await(State current) {
+            while (true) {
+                State now = state;
+                if (now != current || closing && current == State.SUSPENDED) return now;
+                LockSupport.park(this);
+            }
+        }
+
+        /**
+         * Also run by the cleaner of a collected handle, so it must not refer to the handle.
+         */
+        private void close() {
+            lookahead = NONE;
+            if (state == State.NEW) {
+                state = State.DONE;
+            } else if (state == State.SUSPENDED) {
+                caller = Thread.currentThread();
+                closing = true;
+                LockSupport.unpark(thread);
+                while (state != State.DONE) {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        private void run() {
+            Throwable error = null;
+            try {
+                interpreter.executeBody(code.statements(), frame, function.upvalues());
+            } catch (Return | Closed ignored) {
+                // A generator can only return without a value, see Resolver
+            } catch (Throwable e) {
+                // Errors of the script, but also of the interpreter or the JVM, which next() rethrows as they are
+                error = e;
+            } finally {
+                // Whatever happened, the caller parked in next() must wake up
+                failure = error;
+                state = State.DONE;
+                LockSupport.unpark(caller);
+            }
+        }
+
+        /**
+         * Called by the body's interpreter: hands {@code element} to the caller and waits until asked for the next.
+         */
+        void yield(Object element) {
+            value = element;
+            state = State.SUSPENDED;
+            LockSupport.unpark(caller);
+            await(State.SUSPENDED);
+            if (closing) throw Closed.INSTANCE;
+        }
+    }
+}
@@ -1,13 +1,30 @@
 package hvu.jfox;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+public class FoxInstance implements FoxObject, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
 
-public class FoxInstance {
     public FoxClass klass;
-    private final HashMap<String, Object> fields = new HashMap<>();
+    private final HashMap<Symbol, Object> fields;
 
     FoxInstance(FoxClass klass) {
         this.klass = klass;
+        this.fields = new HashMap<>();
+    }
+
+    /**
+     * @param expectedFields number of fields the instance will likely get, so the table is allocated once at the
+     *                       right size
+     */
+    FoxInstance(FoxClass klass, int expectedFields) {
+        this.klass = klass;
+        this.fields = expectedFields == 0 ? new HashMap<>() : HashMap.newHashMap(expectedFields);
     }
 
     @Override
@@ -15,18 +32,30 @@ public class FoxInstance {
         return "<Instance: " + this.klass.getName() + ">";
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    @Override
+    public Object get(Token name) {
+        Object value = fields.get(name.symbol);
+        if (value != null || fields.containsKey(name.symbol)) {
+            return value;
         }
 
-        FoxFunction method = this.klass.getMethodByName(name.lexeme);
+        FoxFunction method = this.klass.getMethodByName(name.symbol);
         if (method != null) return method.bind(this);
 
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "' on " + this.klass.getName() + " instance");
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        fields.put(name.symbol, value);
+    }
+
+    int fieldCount() {
+        return fields.size();
+    }
+
+    void copyFrom(FoxInstance other, UnaryOperator<Object> copier) {
+        for (Map.Entry<Symbol, Object> entry : other.fields.entrySet()) {
+            fields.put(entry.getKey(), copier.apply(entry.getValue()));
+        }
     }
 }
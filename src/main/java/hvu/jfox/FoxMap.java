@@ -0,0 +1,356 @@
+package hvu.jfox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Built-in hash map. Entries are kept densely in insertion order and found through an open-addressing
+ * (linear probing) index table, so lookups never allocate and {@code keys()} is deterministic.
+ * The full hash of every entry is cached; strings and numbers are compared without going through equals().
+ * Keys follow the same equality as {@code ==}: strings and numbers by value, everything else by identity.
+ * Only the entries are serialized, since identity hashes change; the tables are rebuilt on read.
+ */
+public class FoxMap implements FoxBuiltIn, FoxIndexable, FoxIterable, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Symbol GET = Symbol.intern("get");
+    private static final Symbol SET = Symbol.intern("set");
+    private static final Symbol HAS = Symbol.intern("has");
+    private static final Symbol DELETE = Symbol.intern("delete");
+    private static final Symbol SIZE = Symbol.intern("size");
+    private static final Symbol KEYS = Symbol.intern("keys");
+    private static final Symbol VALUES = Symbol.intern("values");
+    private static final int EMPTY = -1;
+    private static final int DELETED = -2;
+    private static final int MIN_INDEX_SIZE = 8;
+
+    private transient int[] index;
+    private transient Object[] keys;
+    private transient Object[] values;
+    private transient int[] hashes;
+    // Entries ever appended since the last rehash, including deleted ones
+    private transient int entryCount;
+    private transient int size;
+
+    FoxMap() {
+        allocate(MIN_INDEX_SIZE);
+    }
+
+    private void allocate(int indexSize) {
+        index = new int[indexSize];
+        Arrays.fill(index, EMPTY);
+        int capacity = maxEntries(indexSize);
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        entryCount = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        key = normalize(key);
+        int entry = find(key, hash(key));
+        return entry < 0 ? null : values[entry];
+    }
+
+    boolean has(Object key) {
+        key = normalize(key);
+        return find(key, hash(key)) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        checkKey(key);
+        key = normalize(key);
+        int hash = hash(key);
+        int entry = find(key, hash);
+        if (entry >= 0) {
+            values[entry] = value;
+            return;
+        }
+
+        if (entryCount == keys.length) rehash();
+
+        entry = entryCount++;
+        keys[entry] = key;
+        values[entry] = value;
+        hashes[entry] = hash;
+        size++;
+
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = entry;
+    }
+
+    boolean remove(Object key) {
+        key = normalize(key);
+        int hash = hash(key);
+        int mask = index.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot];
+            if (entry == EMPTY) return false;
+            if (entry >= 0 && hashes[entry] == hash && keyEquals(keys[entry], key)) {
+                index[slot] = DELETED;
+                keys[entry] = null;
+                values[entry] = null;
+                size--;
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public Object getIndex(Token bracket, Object key) {
+        return get(key);
+    }
+
+    @Override
+    public void setIndex(Token bracket, Object key, Object value) {
+        if (key == null) throw new RuntimeError(bracket, "Map key can not be nil");
+        put(key, value);
+    }
+
+    /**
+     * Iterates the keys in insertion order, keys added during the loop included. A rehash compacts the entries,
+     * so after one the loop finds its place again by the last key it visited.
+     */
+    @Override
+    public FoxIterator iterator() {
+        return new FoxIterator() {
+            private Object[] entries = keys;
+            private int entry = 0;
+            private Object last;
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                if (entries != keys) {
+                    if (last != null) {
+                        int found = find(last, hash(last));
+                        if (found < 0) throw new NativeError("Map changed too much to go on looping: the key being visited was removed.");
+                        entry = found + 1;
+                    }
+                    entries = keys;
+                }
+
+                while (entry < entryCount) {
+                    Object key = keys[entry++];
+                    if (key != null) {
+                        last = key;
+                        return key;
+                    }
+                }
+                return DONE;
+            }
+        };
+    }
+
+    @Override
+    public int arity(Symbol name) {
+        if (name == SIZE || name == KEYS || name == VALUES) return 0;
+        if (name == GET || name == HAS || name == DELETE) return 1;
+        if (name == SET) return 2;
+        return -1;
+    }
+
+    @Override
+    public Object invoke0(Symbol name) {
+        if (name == SIZE) return (long) size;
+        if (name == KEYS) return entries(keys);
+        if (name == VALUES) return entries(values);
+        return NO_METHOD;
+    }
+
+    @Override
+    public Object invoke1(Symbol name, Object first) {
+        if (name == GET) return get(first);
+        if (name == HAS) return has(first);
+        if (name == DELETE) return remove(first);
+        return NO_METHOD;
+    }
+
+    @Override
+    public Object invoke2(Symbol name, Object first, Object second) {
+        if (name != SET) return NO_METHOD;
+
+        put(first, second);
+        return null;
+    }
+
+    @Override
+    public String kind() {
+        return "map";
+    }
+
+    private FoxArray entries(Object[] source) {
+        FoxArray array = new FoxArray(size);
+        for (int i = 0; i < entryCount; i++) {
+            if (keys[i] != null) array.push(source[i]);
+        }
+        return array;
+    }
+
+    private int find(Object key, int hash) {
+        int mask = index.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot];
+            if (entry == EMPTY) return -1;
+            if (entry >= 0 && hashes[entry] == hash && keyEquals(keys[entry], key)) return entry;
+        }
+    }
+
+    /**
+     * Drops deleted entries and rebuilds the index, growing it when live entries need the room.
+     */
+    private void rehash() {
+        int indexSize = index.length;
+        while (maxEntries(indexSize) < (size + 1) * 2) {
+            indexSize <<= 1;
+        }
+
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        int oldCount = entryCount;
+
+        index = new int[indexSize];
+        Arrays.fill(index, EMPTY);
+        int capacity = maxEntries(indexSize);
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        entryCount = 0;
+
+        int mask = indexSize - 1;
+        for (int i = 0; i < oldCount; i++) {
+            if (oldKeys[i] == null) continue;
+
+            int entry = entryCount++;
+            keys[entry] = oldKeys[i];
+            values[entry] = oldValues[i];
+            hashes[entry] = oldHashes[i];
+
+            int slot = oldHashes[i] & mask;
+            while (index[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = entry;
+        }
+    }
+
+    private static int maxEntries(int indexSize) {
+        // Keep the index table at most 3/4 full
+        return indexSize - (indexSize >> 2);
+    }
+
+    private static int hash(Object key) {
+        if (key instanceof String string) {
+            // String caches its own hash code
+            return spread(string.hashCode());
+        }
+        if (key instanceof Long number) {
+            // Mix the whole word and keep the top half, as consecutive integers only differ in their low bits
+            return (int) ((number * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+        if (key instanceof Double number) {
+            // Integral doubles only differ in their high bits, so mix the whole word and keep the top half
+            return (int) ((Double.doubleToLongBits(number) * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+        return spread(key == null ? 0 : key.hashCode());
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean keyEquals(Object stored, Object key) {
+        if (stored == key) return true;
+        if (stored instanceof String string) {
+            return key instanceof String other && string.equals(other);
+        }
+        if (stored instanceof Long number) {
+            return key instanceof Long other && number.longValue() == other.longValue();
+        }
+        if (stored instanceof Double number) {
+            return key instanceof Double other
+                    && Double.doubleToLongBits(number) == Double.doubleToLongBits(other);
+        }
+        return stored != null && stored.equals(key);
+    }
+
+    /**
+     * Ropes are flattened so that every string key hits the String fast path, and doubles with an integer value
+     * become that integer, as {@code 1 == 1.0}.
+     */
+    private static Object normalize(Object key) {
+        if (key instanceof FoxRope rope) return rope.toString();
+        if (key instanceof Double number && Interpreter.isInteger(number)) return (long) (double) number;
+        return key;
+    }
+
+    private static void checkKey(Object key) {
+        if (key == null) throw new NativeError("Map key can not be nil.");
+    }
+
+    static FoxMap of(List<Object> pairs) {
+        if (pairs.size() % 2 != 0) throw new NativeError("map expects key and value pairs.");
+
+        FoxMap map = new FoxMap();
+        for (int i = 0; i < pairs.size(); i += 2) {
+            map.put(pairs.get(i), pairs.get(i + 1));
+        }
+        return map;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < entryCount; i++) {
+            if (keys[i] == null) continue;
+            out.writeObject(keys[i]);
+            out.writeObject(values[i]);
+        }
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int count = in.readInt();
+        allocate(MIN_INDEX_SIZE);
+        for (int i = 0; i < count; i++) {
+            Object key = in.readObject();
+            put(key, in.readObject());
+        }
+    }
+
+    void copyFrom(FoxMap other, UnaryOperator<Object> copier) {
+        for (int i = 0; i < other.entryCount; i++) {
+            if (other.keys[i] != null) put(copier.apply(other.keys[i]), copier.apply(other.values[i]));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        boolean first = true;
+        for (int i = 0; i < entryCount; i++) {
+            if (keys[i] == null) continue;
+            if (!first) builder.append(", ");
+            builder.append(Interpreter.stringify(keys[i])).append(": ").append(Interpreter.stringify(values[i]));
+            first = false;
+        }
+        return builder.append("}").toString();
+    }
+}
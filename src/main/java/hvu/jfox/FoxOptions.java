@@ -0,0 +1,150 @@
+package hvu.jfox;
+
+/**
+ * Command line options for {@link Main}.
+ */
+class FoxOptions {
+    static final String USAGE = """
+            Usage: jlox [options] [script]
+                   jlox [options] --batch <directory|manifest>
+            Options:
+              --output-buffer <bytes>   Size of the print buffer (default: 65536)
+              --strict                  Compile every function body before running, not on first call;
+                                        without it, errors in a body are only reported (and the exit code
+                                        only set) once the function is called
+              --prelude <script>        Run a script first, e.g. to define library code
+              --snapshot <file>         After the prelude, save all globals to a snapshot file
+              --boot <file>             Start from the globals saved in a snapshot file
+              --debug                   Start the script paused in the debugger (implies --strict)
+              --coverage <file>         Write line and branch coverage of the script as LCOV (implies --strict)
+              --types                   Print the types inferred for the script to stderr (implies --strict
+                                        and --infer-types)
+              --infer-types             Prove which operands are numbers before running, so that arithmetic on
+                                        them skips the checks at run time
+              --auto-memo               Memoize every pure recursive function, not only those declared memo
+              --memo-stats              Print the hits and misses of memo functions to stderr at exit
+              --pipeline                Run each top-level statement as soon as it is compiled, while the rest
+                                        of the script is compiled on another thread
+              --parallel-compile        Split a large script at its top-level declarations and compile the
+                                        parts on all cores
+              --batch <path>            Run every .fox file of a directory, or every script listed in a
+                                        manifest file, in this JVM; output is written in order, then a summary
+              --threads <n>             Number of scripts a batch runs at once (default: number of cores)
+              --budget <steps>          Kill a script after this many loop iterations and calls in total
+              --slice <steps>           Steps a batch script runs before letting a waiting one run
+                                        (default: 10000)""";
+
+    String script = null;
+    int outputBufferSize = FoxOutput.DEFAULT_BUFFER_SIZE;
+    boolean strict = false;
+    String prelude = null;
+    String snapshot = null;
+    String boot = null;
+    boolean debug = false;
+    String coverage = null;
+    boolean dumpTypes = false;
+    boolean inferTypes = false;
+    boolean autoMemo = false;
+    boolean memoStats = false;
+    boolean pipeline = false;
+    boolean parallelCompile = false;
+    String batch = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long budget = FoxScheduler.UNLIMITED;
+    long slice = FoxScheduler.DEFAULT_SLICE;
+
+    static FoxOptions parse(String[] args) {
+        FoxOptions options = new FoxOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--output-buffer" -> options.outputBufferSize = intValue(args, ++i, arg);
+                case "--strict" -> options.strict = true;
+                case "--prelude" -> options.prelude = value(args, ++i, arg);
+                case "--snapshot" -> options.snapshot = value(args, ++i, arg);
+                case "--boot" -> options.boot = value(args, ++i, arg);
+                case "--debug" -> {
+                    // Only fully parsed bodies can be debugged
+                    options.debug = true;
+                    options.strict = true;
+                }
+                case "--coverage" -> {
+                    options.coverage = value(args, ++i, arg);
+                    options.strict = true;
+                }
+                case "--types" -> {
+                    options.dumpTypes = true;
+                    options.strict = true;
+                    options.inferTypes = true;
+                }
+                case "--infer-types" -> options.inferTypes = true;
+                case "--auto-memo" -> options.autoMemo = true;
+                case "--memo-stats" -> options.memoStats = true;
+                case "--pipeline" -> options.pipeline = true;
+                case "--parallel-compile" -> options.parallelCompile = true;
+                case "--batch" -> options.batch = value(args, ++i, arg);
+                case "--threads" -> options.threads = intValue(args, ++i, arg);
+                case "--budget" -> options.budget = longValue(args, ++i, arg);
+                case "--slice" -> options.slice = longValue(args, ++i, arg);
+                default -> {
+                    if (arg.startsWith("--") || options.script != null) {
+                        throw new IllegalArgumentException("Unexpected argument: " + arg);
+                    }
+                    options.script = arg;
+                }
+            }
+        }
+
+        // These need the whole program before it runs
+        if (options.pipeline && (options.debug || options.coverage != null || options.dumpTypes)) {
+            throw new IllegalArgumentException("--pipeline can not be combined with --debug, --coverage or --types");
+        }
+        if (options.batch != null && (options.script != null || options.snapshot != null || options.debug
+                || options.coverage != null || options.dumpTypes)) {
+            throw new IllegalArgumentException(
+                    "--batch can not be combined with a script, --snapshot, --debug, --coverage or --types");
+        }
+        if (options.threads < 1) throw new IllegalArgumentException("--threads must be at least 1");
+        if (options.budget < 1 || options.slice < 1) {
+            throw new IllegalArgumentException("--budget and --slice must be at least 1");
+        }
+        return options;
+    }
+
+    /**
+     * A runtime compiling with the options given.
+     */
+    FoxRuntime runtime() {
+        return FoxRuntime.builder()
+                .strict(strict)
+                .inferTypes(inferTypes)
+                .autoMemo(autoMemo)
+                .parallel(parallelCompile)
+                .build();
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int intValue(String[] args, int index, String option) {
+        String value = value(args, index, option);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number for " + option + ", got " + value);
+        }
+    }
+
+    private static long longValue(String[] args, int index, String option) {
+        String value = value(args, index, option);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number for " + option + ", got " + value);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package hvu.jfox;
+
+import java.io.Console;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffered output used by {@code print}. Text is encoded straight into a {@link ByteBuffer} and handed to the
+ * channel only when the buffer fills up, on {@link #flush()} (called explicitly, by the {@code flush} native and at
+ * the end of every run) or, for interactive terminals only, at the end of each line.
+ * A lock keeps each {@code print} call's line whole when spawned tasks share the output.
+ */
+public class FoxOutput {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    // Below this magnitude Double.toString uses plain notation, so integral values print without a fraction
+    private static final double PLAIN_INTEGER_LIMIT = 1e7;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final boolean flushOnNewline;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] digits = new byte[20];
+    // Like PrintStream, a failed write (e.g. a closed pipe) silently discards the rest of the output
+    private boolean failed = false;
+
+    FoxOutput(WritableByteChannel channel, int bufferSize, boolean flushOnNewline) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 64));
+        this.flushOnNewline = flushOnNewline;
+    }
+
+    /**
+     * Writes to file descriptor 1 through its FileChannel, bypassing System.out's synchronized, autoflushing stream.
+     * Lines are flushed as they end only when stdout is a terminal: since Java 22 there is a console even when the
+     * output is piped or redirected.
+     */
+    public static FoxOutput stdout(int bufferSize) {
+        FileOutputStream stream = new FileOutputStream(FileDescriptor.out);
+        Console console = System.console();
+        return new FoxOutput(stream.getChannel(), bufferSize, console != null && console.isTerminal());
+    }
+
+    public static FoxOutput of(OutputStream stream) {
+        return new FoxOutput(Channels.newChannel(stream), DEFAULT_BUFFER_SIZE, false);
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Writes {@code value} the way {@link Interpreter#stringify(Object)} renders it.
+     */
+    void print(Object value) {
+        if (value instanceof Double number) {
+            writeNumber(number);
+        } else if (value instanceof Long integer) {
+            writeLong(integer);
+        } else {
+            write(Interpreter.stringify(value));
+        }
+    }
+
+    void write(String text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                writeBytes(text.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (!buffer.hasRemaining()) drain();
+            buffer.put((byte) c);
+        }
+    }
+
+    void write(char c) {
+        if (c >= 0x80) {
+            write(String.valueOf(c));
+            return;
+        }
+        if (!buffer.hasRemaining()) drain();
+        buffer.put((byte) c);
+    }
+
+    void newline() {
+        write('\n');
+        if (flushOnNewline) flush();
+    }
+
+    void writeNumber(double number) {
+        if (number == Math.rint(number) && Math.abs(number) < PLAIN_INTEGER_LIMIT) {
+            if (number == 0 && Double.doubleToRawLongBits(number) != 0) {
+                write("-0");
+            } else {
+                writeLong((long) number);
+            }
+            return;
+        }
+
+        // Double.toString is already the shortest representation that round-trips
+        String text = Double.toString(number);
+        if (text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        write(text);
+    }
+
+    private void writeLong(long value) {
+        if (buffer.remaining() < digits.length + 1) drain();
+
+        // Digits come from the negative value, since Long.MIN_VALUE has no positive counterpart
+        if (value < 0) {
+            buffer.put((byte) '-');
+        } else {
+            value = -value;
+        }
+
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, position, digits.length - position);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) drain();
+            int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    public void flush() {
+        lock.lock();
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (!failed && buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            failed = true;
+        } finally {
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package hvu.jfox;
+
+import java.util.List;
+
+/**
+ * A scanned, parsed and resolved script. Resolution results live on the AST nodes themselves, so once a
+ * program is built it is never written to again (apart from deferred function bodies, which compile themselves
+ * under a lock, see {@link FunctionBody}, and statements wrapped by an attached {@link FoxDebugger}) and can be
+ * run by any number of {@link FoxContext}s at once.
+ */
+public final class FoxProgram {
+    // Null if the program did not compile
+    private final FunctionBody.Code script;
+    private final boolean valid;
+
+    FoxProgram(FunctionBody.Code script, boolean valid) {
+        this.script = script;
+        this.valid = valid;
+    }
+
+    List<Stmt> statements() {
+        return script.statements();
+    }
+
+    /**
+     * Top-level statements and the frame layout of the locals of top-level blocks.
+     */
+    FunctionBody.Code script() {
+        return script;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+}
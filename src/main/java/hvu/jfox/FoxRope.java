@@ -0,0 +1,124 @@
+package hvu.jfox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+
+/**
+ * Result of concatenating long Fox strings. Concatenation only links the two halves, and the characters are copied
+ * once, on the first comparison, hash or output ({@link #toString()}), so building a string in a loop is linear
+ * instead of quadratic. Fox code never sees the difference: every Fox string is either a {@link String} or a rope.
+ */
+public final class FoxRope implements CharSequence, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // Below this length copying is cheaper than allocating a rope node
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    private final int length;
+    // Children are dropped once flattened; volatile so a concurrent flatten never sees a half-published state
+    private volatile CharSequence left;
+    private volatile CharSequence right;
+    private volatile String flat;
+
+    private FoxRope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    static boolean isString(Object object) {
+        return object instanceof String || object instanceof FoxRope;
+    }
+
+    static Object concat(Object first, Object second) {
+        CharSequence left = (CharSequence) first;
+        CharSequence right = (CharSequence) second;
+
+        if (left.isEmpty()) return right;
+        if (right.isEmpty()) return left;
+        if (left.length() + right.length() < MIN_ROPE_LENGTH) {
+            return left.toString().concat(right.toString());
+        }
+        return new FoxRope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String result = flat;
+        if (result == null) {
+            result = flatten();
+            flat = result;
+            left = null;
+            right = null;
+        }
+        return result;
+    }
+
+    /**
+     * Copies every leaf into one array, walking the tree with an explicit stack since loop-built ropes are as deep
+     * as the number of iterations.
+     */
+    private String flatten() {
+        char[] chars = new char[length];
+        ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        int position = 0;
+
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof FoxRope rope) {
+                CharSequence ropeLeft = rope.left;
+                CharSequence ropeRight = rope.right;
+                if (ropeLeft == null || ropeRight == null) {
+                    // Flattened by someone else in the meantime; flat was published before the children were cleared
+                    piece = rope.flat;
+                } else {
+                    pending.push(ropeRight);
+                    pending.push(ropeLeft);
+                    continue;
+                }
+            }
+
+            String string = (String) piece;
+            string.getChars(0, string.length(), chars, position);
+            position += string.length();
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Saved as a plain string.
+     */
+    @Serial
+    private Object writeReplace() {
+        return toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FoxRope rope && toString().equals(rope.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
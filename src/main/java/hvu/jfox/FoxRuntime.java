@@ -0,0 +1,125 @@
+package hvu.jfox;
+
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Entry point for embedding jFox. A runtime holds no per-script state: it compiles sources into shareable
+ * {@link FoxProgram}s and hands out isolated {@link FoxContext}s, and is safe to use from any number of threads.
+ */
+public class FoxRuntime {
+    private final boolean strict;
+    private final boolean inferTypes;
+    private final boolean autoMemo;
+    private final boolean parallel;
+
+    public FoxRuntime() {
+        this(new Builder());
+    }
+
+    private FoxRuntime(Builder builder) {
+        this.strict = builder.strict;
+        this.inferTypes = builder.inferTypes;
+        this.autoMemo = builder.autoMemo;
+        this.parallel = builder.parallel;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Compiler options of a runtime, all off by default.
+     */
+    public static final class Builder {
+        private boolean strict = false;
+        private boolean inferTypes = false;
+        private boolean autoMemo = false;
+        private boolean parallel = false;
+
+        private Builder() {
+        }
+
+        /**
+         * Parse and resolve every function body up front, so that all compile errors are reported before the
+         * program starts; otherwise each body is compiled when its function is first called.
+         */
+        public Builder strict(boolean strict) {
+            this.strict = strict;
+            return this;
+        }
+
+        /**
+         * Run {@link TypeInference} on every body, so that arithmetic on proven numbers skips operand checks.
+         */
+        public Builder inferTypes(boolean inferTypes) {
+            this.inferTypes = inferTypes;
+            return this;
+        }
+
+        /**
+         * Memoize every pure recursive function, not only those declared {@code memo}.
+         */
+        public Builder autoMemo(boolean autoMemo) {
+            this.autoMemo = autoMemo;
+            return this;
+        }
+
+        /**
+         * Compile large sources on every core, see {@link ParallelFrontEnd}.
+         */
+        public Builder parallel(boolean parallel) {
+            this.parallel = parallel;
+            return this;
+        }
+
+        public FoxRuntime build() {
+            return new FoxRuntime(this);
+        }
+    }
+
+    public FoxProgram compile(String source, ErrorReporter reporter) {
+        if (parallel) {
+            FoxProgram program = ParallelFrontEnd.compile(source, reporter, strict, inferTypes, autoMemo);
+            if (program != null) return program;
+        }
+
+        Scanner scanner = new Scanner(source, reporter);
+        TokenBuffer tokens = scanner.scanTokens();
+        Parser parser = new Parser(tokens, reporter, !strict);
+        List<Stmt> statements = parser.parse();
+
+        if (reporter.hadError()) return new FoxProgram(null, false);
+
+        Resolver resolver = new Resolver(reporter, inferTypes, autoMemo, new GlobalNames());
+        resolver.resolve(statements);
+        FunctionBody.Code script = resolver.script(statements);
+
+        if (reporter.hadError()) return new FoxProgram(null, false);
+        if (inferTypes) TypeInference.analyzeProgram(script, null);
+        return new FoxProgram(script, true);
+    }
+
+    /**
+     * Starts compiling {@code source} on a thread of its own, one top-level statement at a time.
+     */
+    PipelinedFrontEnd compilePipelined(String source, ErrorReporter reporter) {
+        return new PipelinedFrontEnd(source, reporter, strict, inferTypes, autoMemo);
+    }
+
+    public FoxContext newContext(ErrorReporter reporter, FoxOutput out) {
+        return new FoxContext(this, reporter, out);
+    }
+
+    public FoxContext newContext(ErrorReporter reporter, OutputStream out) {
+        return newContext(reporter, FoxOutput.of(out));
+    }
+
+    public FoxContext newContext(int outputBufferSize) {
+        return newContext(new ConsoleErrorReporter(System.err), FoxOutput.stdout(outputBufferSize));
+    }
+
+    public FoxContext newContext() {
+        return newContext(FoxOutput.DEFAULT_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,214 @@
+package hvu.jfox;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Time-slices scripts, typically untrusted ones, over a fixed number of carriers. Each script runs on a virtual
+ * thread, but only while it holds one of the carrier permits; a script that used up its slice hands its permit
+ * to the longest waiting script, so a runaway {@code while (true)} delays the others by one slice at most.
+ * <p>
+ * Scripts are measured in steps: one per loop iteration and one per function call. The interpreter polls its
+ * script at a safepoint every {@code slice} steps (see {@link Interpreter#schedule}), which is where a script
+ * pauses, yields its carrier or is killed, either by {@link Script#kill()} or for exceeding its total budget;
+ * a killed script stops with a runtime error. Tasks spawned by a script count against its budget and stop with
+ * it, but are not time-sliced themselves. A script blocked in a native (e.g. receiving from a channel) reaches no
+ * safepoint and keeps its carrier.
+ */
+public final class FoxScheduler {
+    public static final long DEFAULT_SLICE = 10_000;
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final Semaphore carriers;
+    private final long slice;
+
+    /**
+     * @param carriers how many scripts run at once
+     * @param slice    steps a script runs before it lets a waiting script run
+     */
+    public FoxScheduler(int carriers, long slice) {
+        if (carriers < 1 || slice < 1) throw new IllegalArgumentException("Carriers and slice must be positive");
+        this.carriers = new Semaphore(carriers, true);
+        this.slice = slice;
+    }
+
+    /**
+     * Starts running {@code program} in {@code context}, which must not be used by anything else until the
+     * script is done.
+     *
+     * @param budget steps the script may take in total, or {@link #UNLIMITED}
+     */
+    public Script submit(FoxContext context, FoxProgram program, long budget) {
+        return submit(context, budget, () -> context.run(program));
+    }
+
+    /**
+     * Starts running {@code work}, which runs Fox code in {@code context} only.
+     */
+    Script submit(FoxContext context, long budget, Supplier<FoxContext.Status> work) {
+        Script script = new Script(context, budget, work);
+        script.thread.start();
+        return script;
+    }
+
+    public final class Script {
+        private final FoxContext context;
+        private final long budget;
+        private final Supplier<FoxContext.Status> work;
+        private final Thread thread;
+        private final CompletableFuture<FoxContext.Status> status = new CompletableFuture<>();
+        // Steps taken up to the last safepoint of each thread of the script
+        private final AtomicLong steps = new AtomicLong();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition resumed = lock.newCondition();
+        private volatile boolean paused = false;
+        private volatile boolean killed = false;
+        private long started;
+        private long finished;
+
+        private Script(FoxContext context, long budget, Supplier<FoxContext.Status> work) {
+            this.context = context;
+            this.budget = budget;
+            this.work = work;
+            this.thread = Thread.ofVirtual().name("fox-script").unstarted(this::run);
+        }
+
+        private void run() {
+            carriers.acquireUninterruptibly();
+            started = System.nanoTime();
+            FoxContext.Status result = null;
+            Throwable failure = null;
+            try {
+                context.schedule(this);
+                result = work.get();
+            } catch (Throwable error) {
+                failure = error;
+            } finally {
+                context.schedule(null);
+                carriers.release();
+            }
+
+            // Completing publishes the timing to await()ing threads
+            finished = System.nanoTime();
+            if (failure != null) {
+                status.completeExceptionally(failure);
+            } else {
+                status.complete(result);
+            }
+        }
+
+        /**
+         * Steps the interpreter of a script thread may take before its next safepoint.
+         */
+        long grant() {
+            long left = budget == UNLIMITED ? UNLIMITED : budget - steps.get();
+            return Math.max(1, Math.min(slice, left));
+        }
+
+        /**
+         * Called at the safepoint of an interpreter that took the {@code taken} steps it was granted. Blocks
+         * while the script is paused or waits for a carrier, throws if it must stop, and returns the next grant.
+         */
+        long poll(long taken, int line) {
+            long total = steps.addAndGet(taken);
+            if (!killed && budget != UNLIMITED && total >= budget) {
+                killed = true;
+                throw stop(line, "Script exceeded its budget of " + budget + " steps");
+            }
+            if (paused) awaitResume();
+            if (killed) throw stop(line, "Script was killed");
+
+            if (Thread.currentThread() == thread && carriers.hasQueuedThreads()) {
+                carriers.release();
+                carriers.acquireUninterruptibly();
+            }
+            return grant();
+        }
+
+        private static RuntimeError stop(int line, String message) {
+            return new RuntimeError(new Token(TokenType.EOF, "", line), message);
+        }
+
+        private void awaitResume() {
+            // Only the script's own thread holds a carrier
+            boolean carrier = Thread.currentThread() == thread;
+            if (carrier) carriers.release();
+            lock.lock();
+            try {
+                while (paused && !killed) {
+                    resumed.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (carrier) carriers.acquireUninterruptibly();
+        }
+
+        /**
+         * Stops the script at its next safepoint, until {@link #resume()}; it gives up its carrier meanwhile.
+         */
+        public void pause() {
+            paused = true;
+        }
+
+        public void resume() {
+            lock.lock();
+            try {
+                paused = false;
+                resumed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Makes the script stop with a runtime error at its next safepoint, even if it is paused.
+         */
+        public void kill() {
+            lock.lock();
+            try {
+                killed = true;
+                resumed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isDone() {
+            return status.isDone();
+        }
+
+        /**
+         * Waits for the script to finish. Exceptions thrown by the work itself, rather than by Fox code, are
+         * rethrown.
+         */
+        public FoxContext.Status await() {
+            try {
+                return status.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException error) throw error;
+                if (e.getCause() instanceof Error error) throw error;
+                throw e;
+            }
+        }
+
+        /**
+         * Steps taken so far, counted at safepoints, so up to a slice per thread behind.
+         */
+        public long steps() {
+            return steps.get();
+        }
+
+        /**
+         * Time from getting a carrier for the first time to finishing, pauses included; only valid once done.
+         */
+        public long elapsedNanos() {
+            return finished - started;
+        }
+    }
+}
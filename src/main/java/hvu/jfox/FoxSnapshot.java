@@ -0,0 +1,117 @@
+package hvu.jfox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Saves the globals of an initialized interpreter (typically right after a prelude has defined library classes,
+ * helper functions and constant tables) and loads them into fresh interpreters, so that booting skips running the
+ * prelude again. The object graph is written with Java serialization: classes, functions with their AST and
+ * captured cells, instances, arrays, maps and strings. Natives are written by name and bound to the loading
+ * interpreter's own. Tasks, channels and methods of built-in values can not be saved.
+ * Serialized classes declare a fixed {@code serialVersionUID}, so a snapshot loads in any build with the same
+ * {@code VERSION}, which is bumped whenever the serialized form of one of them changes.
+ */
+final class FoxSnapshot {
+    private static final String MAGIC = "jfox-snapshot";
+    private static final int VERSION = 7;
+    // Snapshots are trusted files, but there is no reason to instantiate anything but Fox values
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter("hvu.jfox.*;java.lang.*;java.util.*;!*");
+
+    private record NativeReference(String name) implements Serializable {
+    }
+
+    private FoxSnapshot() {
+    }
+
+    static void write(Interpreter interpreter, OutputStream stream) throws IOException {
+        Map<Object, String> natives = new IdentityHashMap<>();
+        for (Map.Entry<String, Object> entry : natives(interpreter).entrySet()) {
+            natives.put(entry.getValue(), entry.getKey());
+        }
+
+        // The loading interpreter defines its own natives
+        Map<Symbol, DefinedVariable> saved = new HashMap<>();
+        interpreter.globals.forEach((name, variable) -> {
+            if (!name.name.equals(natives.get(variable.getValue()))) saved.put(name, variable);
+        });
+
+        ObjectOutputStream out = new ObjectOutputStream(stream) {
+            {
+                enableReplaceObject(true);
+            }
+
+            @Override
+            protected Object replaceObject(Object object) {
+                String name = natives.get(object);
+                return name != null ? new NativeReference(name) : object;
+            }
+        };
+
+        out.writeUTF(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(saved.size());
+        for (Map.Entry<Symbol, DefinedVariable> entry : saved.entrySet()) {
+            DefinedVariable variable = entry.getValue();
+            out.writeUTF(entry.getKey().name);
+            out.writeBoolean(variable.isEditable());
+            try {
+                // One stream for every global, so values shared between globals stay shared
+                out.writeObject(variable.getValue());
+            } catch (NotSerializableException e) {
+                throw new IOException("Can not save global '" + entry.getKey().name + "', it holds a "
+                        + e.getMessage() + " (tasks, channels and built-in methods can not be saved)");
+            }
+        }
+        out.flush();
+    }
+
+    private static Map<String, Object> natives(Interpreter interpreter) {
+        Map<String, Object> natives = new HashMap<>();
+        for (String name : NativeFunctionFactory.builtInFunctionNames()) {
+            natives.put(name, interpreter.globals.get(new Token(TokenType.IDENTIFIER, Symbol.intern(name), 0)));
+        }
+        return natives;
+    }
+
+    static void read(Interpreter interpreter, InputStream stream) throws IOException {
+        Map<String, Object> natives = natives(interpreter);
+
+        ObjectInputStream in = new ObjectInputStream(stream) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object object) {
+                return object instanceof NativeReference reference ? natives.get(reference.name()) : object;
+            }
+        };
+        in.setObjectInputFilter(FILTER);
+
+        if (!MAGIC.equals(in.readUTF())) throw new IOException("Not a jFox snapshot");
+        if (in.readInt() != VERSION) throw new IOException("Unsupported snapshot version");
+
+        int count = in.readInt();
+        try {
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                boolean editable = in.readBoolean();
+                interpreter.globals.define(Symbol.intern(name), in.readObject(), editable);
+            }
+        } catch (InvalidClassException | ClassNotFoundException e) {
+            throw new IOException("Snapshot was written by a different jFox build", e);
+        }
+    }
+}
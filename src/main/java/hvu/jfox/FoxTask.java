@@ -0,0 +1,136 @@
+package hvu.jfox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handle returned by {@code spawn}. The task runs on its own virtual thread against a forked interpreter, so the
+ * only way to exchange mutable values with it is through its arguments (copied), channels or its result.
+ * <p>
+ * Reporters are not thread-safe, so a task records what it reports (compile errors of the bodies it calls first,
+ * warnings) and a thread of the parent context replays it once the task finished: the thread that joins it, or
+ * the one that spawned it, at its next spawn or when its script ends. The error of a task nobody joined is
+ * reported the same way; a later join only says that the task failed.
+ */
+public class FoxTask {
+    // Finished tasks are reported and dropped every so many spawns, so that a long loop does not keep them all
+    private static final int REPORT_INTERVAL = 64;
+
+    private final Thread thread;
+    private final RecordingReporter recorder = new RecordingReporter();
+    private Object result;
+    private Throwable failure;
+    // Tasks the task spawned and left running, for its parent to adopt
+    private List<FoxTask> unjoined = List.of();
+    // Guarded by this: whether the recording was replayed, whether a join took the failure, or a reporter did
+    private boolean reported = false;
+    private boolean joined = false;
+    private boolean failureReported = false;
+
+    private FoxTask(Interpreter parent, FoxCallable function, List<Object> arguments) {
+        Isolation isolation = new Isolation(parent, recorder);
+        Interpreter child = isolation.child();
+
+        FoxCallable callable = (FoxCallable) isolation.copy(function);
+        List<Object> copiedArguments = new ArrayList<>(arguments.size());
+        for (Object argument : arguments) {
+            copiedArguments.add(isolation.copy(argument));
+        }
+
+        this.thread = Thread.ofVirtual().name("fox-task").unstarted(() -> run(child, callable, copiedArguments));
+    }
+
+    static FoxTask spawn(Interpreter parent, FoxCallable function, List<Object> arguments) {
+        FoxTask task = new FoxTask(parent, function, arguments);
+        task.thread.start();
+        parent.tasks.add(task);
+        if (parent.tasks.size() % REPORT_INTERVAL == 0) reportFinished(parent);
+        return task;
+    }
+
+    private void run(Interpreter child, FoxCallable callable, List<Object> arguments) {
+        try {
+            result = callable.call(child, arguments);
+        } catch (Throwable error) {
+            // Errors of the interpreter or the JVM too, so that join never takes a broken task for a finished one
+            failure = error;
+        } finally {
+            // Into this task's recorder, on its own thread
+            reportFinished(child);
+            unjoined = child.tasks;
+        }
+    }
+
+    Object join(Interpreter interpreter) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        // Thread.join gives us a happens-before edge with everything the task wrote
+        if (report(interpreter, true)) throw new NativeError("Task failed, see its error above.");
+        if (failure instanceof RuntimeException error) throw error;
+        if (failure instanceof Error error) throw error;
+        if (failure != null) throw new IllegalStateException(failure);
+        return result;
+    }
+
+    /**
+     * Replays what the finished tasks {@code owner} spawned recorded, errors included, on the thread running
+     * {@code owner}, and forgets them. Their own unjoined tasks become {@code owner}'s.
+     */
+    static void reportFinished(Interpreter owner) {
+        List<FoxTask> tasks = owner.tasks;
+        List<FoxTask> running = new ArrayList<>();
+        // Adopted tasks are appended while this goes
+        for (int i = 0; i < tasks.size(); i++) {
+            FoxTask task = tasks.get(i);
+            // Thread.isAlive gives the same happens-before edge as Thread.join once it returns false
+            if (task.thread.isAlive()) {
+                running.add(task);
+            } else {
+                task.report(owner, false);
+            }
+        }
+        tasks.clear();
+        tasks.addAll(running);
+    }
+
+    /**
+     * Replays the recording of the finished task to {@code owner}'s reporter, once, after the output printed so
+     * far, and its failure too unless it is {@code joining} or was joined. Returns whether the failure was
+     * reported, now or before.
+     */
+    private synchronized boolean report(Interpreter owner, boolean joining) {
+        if (!reported) {
+            reported = true;
+            List<RecordingReporter.Diagnostic> diagnostics = recorder.take();
+            if (!diagnostics.isEmpty()) owner.out.flush();
+            RecordingReporter.replay(diagnostics, owner.reporter);
+            owner.tasks.addAll(unjoined);
+        }
+        if (joining) {
+            joined = true;
+        } else if (failure != null && !joined && !failureReported) {
+            failureReported = true;
+            owner.out.flush();
+            if (failure instanceof RuntimeError error) {
+                owner.reporter.runtimeError(error);
+            } else {
+                owner.reporter.runtimeError(failure);
+            }
+        }
+        return failureReported;
+    }
+
+    @Override
+    public String toString() {
+        return "<Task " + (thread.isAlive() ? "running" : "done") + ">";
+    }
+}
@@ -0,0 +1,177 @@
+package hvu.jfox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Body of a function or method. Unless the runtime is strict, the parser only brace-matches a body and keeps the
+ * range of its tokens; the body is parsed and resolved the first time the function is called, so functions that
+ * never run cost nothing but a token scan. The Resolver leaves a {@link Resolver.Snapshot} of what the body can
+ * see of its enclosing scopes behind, so a deferred body resolves exactly as it would have in place.
+ * <p>
+ * A body is compiled once, but a program may run in many contexts: what compiling it reported is kept and shown
+ * to every context's reporter the first time that context calls the function.
+ */
+final class FunctionBody implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A resolved body. Locals live in a frame of {@code frameSize} slots; methods keep {@code this} in slot 0 and
+     * the parameters follow. {@code captured} tells, for {@code this} and each parameter, whether a closure
+     * captures it, in which case the slot holds a {@link DefinedVariable} cell instead of the value.
+     * The names of the slots and upvalues are only read by {@link FoxDebugger}. A body that {@code yield}s is a
+     * {@code generator}: calling it returns a {@link FoxGenerator} instead of running it. {@code globals} are the
+     * globals the body and the functions nested in it name, which a task running it needs, see {@link Isolation}.
+     */
+    record Code(List<Stmt> statements, int frameSize, int firstParameter, boolean[] captured,
+                String[] slotNames, String[] upvalueNames, boolean generator, Set<Symbol> globals)
+            implements Serializable {
+    }
+
+    private final List<Stmt> parsed;
+    // Dropped once the body is compiled
+    private TokenBuffer tokens;
+    private final int start;
+    private final int end;
+    private Resolver.Snapshot snapshot;
+    private boolean failed = false;
+    // Written before code, empty for most bodies
+    private List<RecordingReporter.Diagnostic> diagnostics = List.of();
+    // Reporters that were shown the diagnostics already
+    private transient Set<ErrorReporter> reported;
+    private volatile Code code;
+
+    private FunctionBody(List<Stmt> parsed, TokenBuffer tokens, int start, int end) {
+        this.parsed = parsed;
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+    }
+
+    static FunctionBody parsed(List<Stmt> statements) {
+        return new FunctionBody(statements, null, -1, -1);
+    }
+
+    /**
+     * @param start index of the first token after the body's opening brace
+     * @param end   index of the body's closing brace
+     */
+    static FunctionBody deferred(TokenBuffer tokens, int start, int end) {
+        return new FunctionBody(null, tokens, start, end);
+    }
+
+    boolean isParsed() {
+        return parsed != null;
+    }
+
+    /**
+     * Only valid for bodies that are already parsed, i.e. while resolving a strict program.
+     */
+    List<Stmt> statements() {
+        return parsed;
+    }
+
+    /**
+     * The resolved body, or null if it is deferred and has not been called yet.
+     */
+    Code resolvedCode() {
+        return code;
+    }
+
+    void resolved(Code code) {
+        this.code = code;
+    }
+
+    void defer(Resolver.Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Every name a deferred body (nested functions included) may refer to, without parsing it: identifiers that
+     * are not property names, plus {@code this} and {@code super}. Some of them may turn out to be the body's own
+     * locals, which only costs the enclosing variable of the same name a cell.
+     */
+    List<String> referencedNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            switch (tokens.type(i)) {
+                case IDENTIFIER -> {
+                    if (tokens.type(i - 1) != TokenType.DOT) names.add(tokens.lexeme(i));
+                }
+                case THIS -> names.add("this");
+                case SUPER -> {
+                    // super.method() binds to `this` as well
+                    names.add("super");
+                    names.add("this");
+                }
+                default -> {
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * The globals the body may name: those it names once it is compiled, every identifier in it before.
+     */
+    synchronized Set<Symbol> globalNames() {
+        if (code != null) return code.globals();
+        // Failed to compile
+        if (tokens == null) return Set.of();
+
+        Set<Symbol> names = new HashSet<>();
+        for (String name : referencedNames()) {
+            names.add(Symbol.intern(name));
+        }
+        return names;
+    }
+
+    /**
+     * Returns the resolved body, compiling it on the first call. Compile errors (and warnings) are reported once
+     * to each {@code reporter} that asks, and every call of a function that failed to compile throws.
+     */
+    Code code(Stmt.Function function, ErrorReporter reporter) {
+        Code result = code;
+        return result != null && diagnostics.isEmpty() ? result : compile(function, reporter);
+    }
+
+    // Tasks can call the same function for the first time concurrently
+    private synchronized Code compile(Stmt.Function function, ErrorReporter reporter) {
+        if (code == null && !failed && snapshot != null) {
+            RecordingReporter recorder = new RecordingReporter();
+            Parser parser = new Parser(tokens, start, recorder, true);
+            List<Stmt> body = parser.parseBlock();
+            Code result = null;
+            if (body != null) {
+                Resolver resolver = new Resolver(recorder, snapshot.inferTypes(), snapshot.autoMemo(),
+                        snapshot.globals());
+                result = resolver.resolveDeferred(snapshot, function, body);
+            }
+            diagnostics = recorder.take();
+            if (result != null) {
+                if (snapshot.inferTypes()) TypeInference.analyze(function, result);
+                snapshot = null;
+                code = result;
+            } else {
+                failed = true;
+            }
+            tokens = null;
+        }
+
+        if (!diagnostics.isEmpty()) {
+            // Weak, so that contexts that ended are not kept alive by the programs they ran
+            if (reported == null) reported = Collections.newSetFromMap(new WeakHashMap<>());
+            if (reported.add(reporter)) RecordingReporter.replay(diagnostics, reporter);
+        }
+        if (code != null) return code;
+
+        throw new RuntimeError(function.name, "Can not call '" + function.name.lexeme + "', its body has errors");
+    }
+}
@@ -0,0 +1,34 @@
+package hvu.jfox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The global names one program refers to, numbered densely as the Resolver meets them, its deferred bodies
+ * included. An expression naming a global keeps the name's {@link Global}, and each {@link Environment} caches the
+ * cells of a program's globals by that index, so a global is looked up once per context instead of once per use,
+ * and the shared AST is never written while it runs.
+ */
+final class GlobalNames implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A global name of {@code names}, shared by every expression naming it.
+     */
+    record Global(GlobalNames names, int index) implements Serializable {
+    }
+
+    private final Map<Symbol, Global> globals = new HashMap<>();
+
+    // Deferred bodies, and the chunks of a parallel front end, resolve concurrently
+    synchronized Global global(Symbol name) {
+        return globals.computeIfAbsent(name, unused -> new Global(this, globals.size()));
+    }
+
+    synchronized int size() {
+        return globals.size();
+    }
+}
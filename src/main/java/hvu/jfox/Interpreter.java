@@ -1,14 +1,114 @@
 package hvu.jfox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * {@link #call(Interpreter, List)} is the general (varargs) entry point. Call sites with up to three arguments use
+ * the fixed-arity entry points instead, which callables override to skip building an argument list.
+ */
 interface FoxCallable {
     Object call(Interpreter interpreter, List<Object> arguments);
 
     int arity();
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object first) {
+        return call(interpreter, Collections.singletonList(first));
+    }
+
+    default Object call2(Interpreter interpreter, Object first, Object second) {
+        return call(interpreter, Arrays.asList(first, second));
+    }
+
+    default Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+        return call(interpreter, Arrays.asList(first, second, third));
+    }
+}
+
+/**
+ * Anything that supports property access ({@code object.name}): user instances and the built-in collections.
+ */
+interface FoxObject {
+    Object get(Token name);
+}
+
+/**
+ * A built-in object, whose properties are all methods. A call site calls them by name, so {@code array.push(x)}
+ * neither looks a string up nor binds a method; only reading a method without calling it binds one.
+ */
+interface FoxBuiltIn extends FoxObject {
+    // What the invoke methods return for a name that is not a method taking that many arguments
+    Object NO_METHOD = new Object();
+
+    /**
+     * The number of arguments method {@code name} takes, or -1 if there is no such method.
+     */
+    int arity(Symbol name);
+
+    Object invoke0(Symbol name);
+
+    Object invoke1(Symbol name, Object first);
+
+    Object invoke2(Symbol name, Object first, Object second);
+
+    /**
+     * What the object is called in error messages.
+     */
+    String kind();
+
+    @Override
+    default Object get(Token name) {
+        Symbol symbol = name.symbol;
+        return switch (arity(symbol)) {
+            case 0 -> NativeMethod.of0(name.lexeme, () -> invoke0(symbol));
+            case 1 -> NativeMethod.of1(name.lexeme, first -> invoke1(symbol, first));
+            case 2 -> NativeMethod.of2(name.lexeme, (first, second) -> invoke2(symbol, first, second));
+            default -> throw new RuntimeError(name, "Undefined property '" + name.lexeme + "' on " + kind());
+        };
+    }
+}
+
+/**
+ * Anything that supports subscripts ({@code object[index]}).
+ */
+interface FoxIndexable {
+    Object getIndex(Token bracket, Object index);
+
+    void setIndex(Token bracket, Object index, Object value);
+}
+
+/**
+ * Anything {@code for (x in ...)} loops over in place: the built-in collections and generators.
+ */
+interface FoxIterable {
+    FoxIterator iterator();
+}
+
+/**
+ * Cursor of a {@code for (x in ...)} loop. The end is a sentinel rather than an exception, so reaching it costs no
+ * more than a step, and {@code nil} stays a valid element.
+ */
+interface FoxIterator {
+    Object DONE = new Object();
+
+    /**
+     * The next element, or {@link #DONE}.
+     */
+    Object next(Interpreter interpreter);
+
+    /**
+     * Called once the loop is over, also when it stops early (break, return or an error).
+     */
+    default void close() {
+    }
 }
 
 
@@ -21,9 +121,9 @@ class RuntimeError extends RuntimeException {
     }
 }
 
-class StopIteration extends RuntimeError {
-    StopIteration(Token token, String message) {
-        super(token, message);
+class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message);
     }
 }
 
@@ -31,35 +131,99 @@ class Return extends RuntimeException {
     final Object value;
 
     Return(Object value) {
+        // Thrown on every return statement: filling in a stack trace would cost more than the call itself
+        super(null, null, false, false);
         this.value = value;
     }
 }
 
+/**
+ * Thrown by {@code break} and {@code continue} to the innermost loop, which the Resolver checks is in the same
+ * function. Both are preallocated and stackless, like {@link Return}.
+ */
+class LoopControl extends RuntimeException {
+    static final LoopControl BREAK = new LoopControl();
+    static final LoopControl CONTINUE = new LoopControl();
+
+    private LoopControl() {
+        super(null, null, false, false);
+    }
+}
+
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+    static final DefinedVariable[] NO_UPVALUES = new DefinedVariable[0];
+    private static final Object[] NO_FRAME = new Object[0];
+    private static final Symbol HAS_NEXT = Symbol.intern("hasNext");
+    private static final Symbol NEXT = Symbol.intern("next");
     final int UNLIMITED_NUMBER_OF_ARGS = -1;
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    Interpreter() {
+    final Environment globals;
+    final ErrorReporter reporter;
+    final FoxOutput out;
+    // Frame and upvalues of the running function (or of the top-level script), see Resolver
+    private Object[] frame = NO_FRAME;
+    private DefinedVariable[] upvalues = NO_UPVALUES;
+    // Caches of the memo functions called so far, for statistics
+    final List<MemoCache> memoCaches;
+    // Tasks spawned here that were not seen finished yet, see FoxTask
+    final List<FoxTask> tasks;
+    // The generator whose body this interpreter runs, if any
+    private final FoxGenerator.Body generator;
+    // Steps (loop iterations and calls) left before the next safepoint; never runs out unless scheduled
+    private long fuel = Long.MAX_VALUE;
+    private long granted = Long.MAX_VALUE;
+    private FoxScheduler.Script script;
+
+    Interpreter(ErrorReporter reporter, FoxOutput out) {
+        this(reporter, out, new Environment());
         defineNativeFunctions();
     }
 
+    /**
+     * Used for spawned tasks: the caller fills {@code globals} (natives included) itself.
+     */
+    Interpreter(ErrorReporter reporter, FoxOutput out, Environment globals) {
+        this.reporter = reporter;
+        this.out = out;
+        this.globals = globals;
+        this.memoCaches = new ArrayList<>();
+        this.tasks = new ArrayList<>();
+        this.generator = null;
+    }
+
+    /**
+     * Runs the body of {@code generator} for {@code caller}, with the same globals, output and memo caches, and
+     * against the same script budget.
+     */
+    Interpreter(Interpreter caller, FoxGenerator.Body generator) {
+        this.reporter = caller.reporter;
+        this.out = caller.out;
+        this.globals = caller.globals;
+        this.memoCaches = caller.memoCaches;
+        this.tasks = caller.tasks;
+        this.generator = generator;
+        if (caller.script != null) schedule(caller.script);
+    }
+
     private void defineNativeFunctions() {
         for (Map.Entry<String, FoxCallable> entry : NativeFunctionFactory.createAll().entrySet()) {
-            globals.define(entry.getKey(), entry.getValue(), false);
+            globals.define(Symbol.intern(entry.getKey()), entry.getValue(), false);
         }
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            globals.assignAt(distance, expr.name, value);
+        if (expr.slot >= 0) {
+            if (expr.captured) {
+                ((DefinedVariable) frame[expr.slot]).assign(expr.name, value);
+            } else {
+                frame[expr.slot] = value;
+            }
+        } else if (expr.upvalue >= 0) {
+            upvalues[expr.upvalue].assign(expr.name, value);
         } else {
-            globals.assign(expr.name, value);
+            globals.cell(expr.name, expr.global).assign(expr.name, value);
         }
 
         return value;
@@ -67,56 +231,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.numeric) return numericBinary(expr);
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        Token operator = expr.operator;
 
-        switch (expr.operator.type) {
-            case TokenType.GREATER -> {
-                return (double) left > (double) right;
-            }
-            case TokenType.GREATER_EQUAL -> {
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left >= (double) right;
-            }
-            case TokenType.LESS -> {
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left < (double) right;
-            }
-            case TokenType.LESS_EQUAL -> {
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left <= (double) right;
-            }
+        switch (operator.type) {
             case TokenType.EQUAL_EQUAL -> {
                 return isEqual(left, right);
             }
             case TokenType.BANG_EQUAL -> {
                 return !isEqual(left, right);
             }
-            case TokenType.PLUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
+            case TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL -> {
+                if (left instanceof Long first && right instanceof Long second) {
+                    return compare(operator, first, second);
                 }
-                if (left instanceof String && right instanceof String) {
-                    return String.valueOf(left) + String.valueOf(right);
+                checkNumberOperand(operator, left, right);
+                return compare(operator, toDouble(left), toDouble(right));
+            }
+            case TokenType.PLUS -> {
+                if (left instanceof Long first && right instanceof Long second) return first + second;
+                if (left instanceof Number && right instanceof Number) return toDouble(left) + toDouble(right);
+                if (FoxRope.isString(left) && FoxRope.isString(right)) {
+                    return FoxRope.concat(left, right);
                 }
 
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            }
-            case TokenType.MINUS -> {
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left - (double) right;
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
             }
-            case TokenType.STAR -> {
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left * (double) right;
+            case TokenType.AMPERSAND, TokenType.PIPE, TokenType.CARET, TokenType.LESS_LESS,
+                 TokenType.GREATER_GREATER -> {
+                return integer(operator, toInteger(operator, left), toInteger(operator, right));
             }
-            case TokenType.SLASH -> {
-                checkNumberOperand(expr.operator, left, right);
-                if ((double) right == 0) {
-                    // Most of the language will throw ZeroDivisionError
-                    throw new RuntimeError(expr.operator, "Zero division error: division must not be 0.");
+            case TokenType.MINUS, TokenType.STAR, TokenType.PERCENT, TokenType.SLASH -> {
+                // Division always has a fractional result
+                if (operator.type != TokenType.SLASH && left instanceof Long first && right instanceof Long second) {
+                    return integer(operator, first, second);
                 }
-                return (double) left / (double) right;
+                checkNumberOperand(operator, left, right);
+                return floating(operator, toDouble(left), toDouble(right));
             }
             default -> {
                 return null;
@@ -124,34 +278,259 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    /**
+     * A binary operator whose operands {@link TypeInference} proved to be numbers: nothing to check, and nested
+     * arithmetic runs on unboxed longs or doubles.
+     */
+    private Object numericBinary(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL -> {
+                if (expr.integral) return compare(expr.operator, evaluateLong(expr.left), evaluateLong(expr.right));
+                return compare(expr.operator, evaluateDouble(expr.left), evaluateDouble(expr.right));
+            }
+            default -> {
+                if (expr.integral) return evaluateLong(expr);
+                return evaluateDouble(expr);
+            }
+        }
+    }
+
+    /**
+     * Evaluates an expression proven to be an integer without boxing what it computes on the way.
+     */
+    private long evaluateLong(Expr expr) {
+        if (expr instanceof Expr.Binary binary && binary.integral) {
+            return integer(binary.operator, evaluateLong(binary.left), evaluateLong(binary.right));
+        }
+        // Only locals no closure captures are proven numbers, so the slot holds the value itself
+        if (expr instanceof Expr.Variable variable && variable.slot >= 0) return (long) frame[variable.slot];
+        if (expr instanceof Expr.Unary unary && unary.integral) {
+            long operand = evaluateLong(unary.right);
+            return unary.operator.type == TokenType.MINUS ? -operand : ~operand;
+        }
+        return (long) evaluate(expr);
+    }
+
+    /**
+     * Evaluates an expression proven to be a number as a double, without boxing what it computes on the way.
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Binary binary && binary.numeric) {
+            if (binary.integral) return evaluateLong(binary);
+            return floating(binary.operator, evaluateDouble(binary.left), evaluateDouble(binary.right));
+        }
+        if (expr instanceof Expr.Variable variable && variable.slot >= 0) return toDouble(frame[variable.slot]);
+        if (expr instanceof Expr.Unary unary && unary.numeric) {
+            if (unary.integral) return evaluateLong(unary);
+            return -evaluateDouble(unary.right);
+        }
+        return toDouble(evaluate(expr));
+    }
+
+    /**
+     * Integer arithmetic wraps around on overflow, like Java's; {@code %} takes the sign of the divisor, and shift
+     * distances are taken modulo 64.
+     */
+    private static long integer(Token operator, long left, long right) {
+        return switch (operator.type) {
+            case PLUS -> left + right;
+            case MINUS -> left - right;
+            case STAR -> left * right;
+            case PERCENT -> modulo(operator, left, right);
+            case AMPERSAND -> left & right;
+            case PIPE -> left | right;
+            case CARET -> left ^ right;
+            case LESS_LESS -> left << right;
+            case GREATER_GREATER -> left >> right;
+            default -> throw notAn(operator);
+        };
+    }
+
+    private static long modulo(Token operator, long left, long right) {
+        if (right == 0) throw zeroDivision(operator);
+        return Math.floorMod(left, right);
+    }
+
+    private static double floating(Token operator, double left, double right) {
+        return switch (operator.type) {
+            case PLUS -> left + right;
+            case MINUS -> left - right;
+            case STAR -> left * right;
+            case SLASH -> {
+                if (right == 0) throw zeroDivision(operator);
+                yield left / right;
+            }
+            case PERCENT -> modulo(operator, left, right);
+            default -> throw notAn(operator);
+        };
+    }
+
+    private static double modulo(Token operator, double left, double right) {
+        if (right == 0) throw zeroDivision(operator);
+        double remainder = left % right;
+        return remainder != 0 && remainder < 0 != right < 0 ? remainder + right : remainder;
+    }
+
+    private static boolean compare(Token operator, long left, long right) {
+        return switch (operator.type) {
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS -> left < right;
+            default -> left <= right;
+        };
+    }
+
+    private static boolean compare(Token operator, double left, double right) {
+        return switch (operator.type) {
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS -> left < right;
+            default -> left <= right;
+        };
+    }
+
+    // The kernels are kept small so that the JIT inlines them into every operator
+    private static IllegalStateException notAn(Token operator) {
+        return new IllegalStateException("Not an arithmetic operator: " + operator.lexeme);
+    }
+
+    private static RuntimeError zeroDivision(Token operator) {
+        // Most of the language will throw ZeroDivisionError
+        return new RuntimeError(operator, "Zero division error: division must not be 0.");
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        List<Expr> argumentExprs = expr.arguments;
+        Object callee;
+        if (expr.callee instanceof Expr.Get get && argumentExprs.size() <= 2) {
+            Object object = evaluate(get.object);
+            if (object instanceof FoxBuiltIn builtIn) return callBuiltIn(expr, get, builtIn);
+            callee = property(get, object);
+        } else {
+            callee = evaluate(expr.callee);
+        }
+
+        try {
+            // The argument count is fixed by the syntax, so each call site always takes the same branch
+            // User functions that hit the inline cache are called directly, everything else through FoxCallable
+            switch (argumentExprs.size()) {
+                case 0 -> {
+                    if (callee instanceof FoxFunction function && cached(expr, function)) return function.call0(this);
+                    return callable(expr, callee, 0).call0(this);
+                }
+                case 1 -> {
+                    Object first = evaluate(argumentExprs.get(0));
+                    if (callee instanceof FoxFunction function && cached(expr, function)) {
+                        return function.call1(this, first);
+                    }
+                    return callable(expr, callee, 1).call1(this, first);
+                }
+                case 2 -> {
+                    Object first = evaluate(argumentExprs.get(0));
+                    Object second = evaluate(argumentExprs.get(1));
+                    if (callee instanceof FoxFunction function && cached(expr, function)) {
+                        return function.call2(this, first, second);
+                    }
+                    return callable(expr, callee, 2).call2(this, first, second);
+                }
+                case 3 -> {
+                    Object first = evaluate(argumentExprs.get(0));
+                    Object second = evaluate(argumentExprs.get(1));
+                    Object third = evaluate(argumentExprs.get(2));
+                    if (callee instanceof FoxFunction function && cached(expr, function)) {
+                        return function.call3(this, first, second, third);
+                    }
+                    return callable(expr, callee, 3).call3(this, first, second, third);
+                }
+                default -> {
+                    List<Object> arguments = new ArrayList<>(argumentExprs.size());
+                    for (Expr argument : argumentExprs) {
+                        arguments.add(evaluate(argument));
+                    }
+                    return callable(expr, callee, arguments.size()).call(this, arguments);
+                }
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    /**
+     * Calls a method of a built-in object without binding it. A name that is no such method goes the checked
+     * way, which reports it, with the arguments evaluated already.
+     */
+    private Object callBuiltIn(Expr.Call expr, Expr.Get get, FoxBuiltIn object) {
+        Symbol name = get.name.symbol;
+        List<Expr> argumentExprs = expr.arguments;
+        try {
+            switch (argumentExprs.size()) {
+                case 0 -> {
+                    Object result = object.invoke0(name);
+                    if (result != FoxBuiltIn.NO_METHOD) return result;
+                    return callable(expr, object.get(get.name), 0).call0(this);
+                }
+                case 1 -> {
+                    Object first = evaluate(argumentExprs.get(0));
+                    Object result = object.invoke1(name, first);
+                    if (result != FoxBuiltIn.NO_METHOD) return result;
+                    return callable(expr, object.get(get.name), 1).call1(this, first);
+                }
+                default -> {
+                    Object first = evaluate(argumentExprs.get(0));
+                    Object second = evaluate(argumentExprs.get(1));
+                    Object result = object.invoke2(name, first, second);
+                    if (result != FoxBuiltIn.NO_METHOD) return result;
+                    return callable(expr, object.get(get.name), 2).call2(this, first, second);
+                }
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
         }
+    }
+
+    private static boolean cached(Expr.Call expr, FoxFunction function) {
+        return CallSiteCache.contains(expr.shapes, function.declaration());
+    }
+
+    /**
+     * The callee as a FoxCallable that takes {@code argumentCount} arguments, checked unless its shape is in the
+     * call site's inline cache, which a successful check adds it to.
+     */
+    private FoxCallable callable(Expr.Call expr, Object callee, int argumentCount) {
+        Object shape = CallSiteCache.shapeOf(callee);
+        Object[] shapes = expr.shapes;
+        if (shape != null && CallSiteCache.contains(shapes, shape)) return (FoxCallable) callee;
+
+        FoxCallable function = checkCallable(expr, callee, argumentCount);
+        if (shape != null && shapes != CallSiteCache.MEGAMORPHIC) expr.shapes = CallSiteCache.add(shapes, shape);
+        return function;
+    }
 
+    private FoxCallable checkCallable(Expr.Call expr, Object callee, int argumentCount) {
         if (!(callee instanceof FoxCallable)) {
             throw new RuntimeError(expr.paren, "Expect callable object");
         }
 
         FoxCallable function = (FoxCallable) callee;
-        if (arguments.size() != function.arity() && function.arity() != UNLIMITED_NUMBER_OF_ARGS) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments, got " + arguments.size() + " arguments instead.");
+        int arity = function.arity();
+        if (argumentCount != arity && arity != UNLIMITED_NUMBER_OF_ARGS) {
+            throw new RuntimeError(expr.paren, "Expected " + arity + " arguments, got " + argumentCount + " arguments instead.");
         }
 
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
-        if (!(object instanceof FoxInstance))
+        return property(expr, evaluate(expr.object));
+    }
+
+    private static Object property(Expr.Get expr, Object object) {
+        if (!(object instanceof FoxObject))
             throw new RuntimeError(expr.name, "Can only access properties from an instance");
 
-        return ((FoxInstance) object).get(expr.name);
+        return ((FoxObject) object).get(expr.name);
     }
 
     @Override
@@ -159,6 +538,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        if (!(object instanceof FoxIndexable)) {
+            throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed");
+        }
+
+        return ((FoxIndexable) object).getIndex(expr.bracket, index);
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        if (!(object instanceof FoxIndexable)) {
+            throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed");
+        }
+
+        Object value = evaluate(expr.value);
+        ((FoxIndexable) object).setIndex(expr.bracket, index, value);
+        return value;
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -192,11 +597,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        FoxClass superclass = (FoxClass) environment.getAt(distance, expr.keyword);
-        FoxInstance object = (FoxInstance) environment.getAt(distance - 1, "this");
+        FoxClass superclass = (FoxClass) upvalues[expr.upvalue].getValue();
+        FoxInstance object = (FoxInstance) lookupVariable(expr.keyword, expr.thisSlot, expr.thisCaptured,
+                expr.thisUpvalue);
 
-        FoxFunction method = superclass.getMethodByName(expr.method.lexeme);
+        FoxFunction method = superclass.getMethodByName(expr.method.symbol);
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'");
         }
@@ -206,17 +611,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookupVariable(expr, expr.keyword);
+        return lookupVariable(expr.keyword, expr.slot, expr.captured, expr.upvalue);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.numeric) {
+            if (expr.integral) return evaluateLong(expr);
+            return evaluateDouble(expr);
+        }
+
         Object right = evaluate(expr.right);
         switch (expr.operator.type) {
             case TokenType.MINUS -> {
+                if (right instanceof Long integer) return -integer;
                 checkNumberOperand(expr.operator, right);
                 return -(double) right;
             }
+            case TokenType.TILDE -> {
+                return ~toInteger(expr.operator, right);
+            }
             case TokenType.BANG -> {
                 return !isTruthy(right);
             }
@@ -228,18 +642,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookupVariable(expr, expr.name);
+        if (expr.slot < 0 && expr.upvalue < 0) {
+            return globals.cell(expr.name, expr.global).getValue();
+        }
+        return lookupVariable(expr.name, expr.slot, expr.captured, expr.upvalue);
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        // Locals of the block already have their own slots in the frame
+        for (Stmt statement : stmt.statements) {
+            execute(statement);
+        }
         return null;
     }
 
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
-        return null;
+        throw LoopControl.BREAK;
     }
 
     @Override
@@ -252,31 +672,39 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        // Methods may capture the class itself, so a cell has to exist before they are created
+        DefinedVariable cell = null;
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.symbol, null);
+        } else if (stmt.captured) {
+            cell = new DefinedVariable(null, true);
+            frame[stmt.slot] = cell;
+        }
 
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            frame[stmt.superSlot] = new DefinedVariable(superclass, false);
         }
 
-        Map<String, FoxFunction> methods = new HashMap<>();
+        Map<Symbol, FoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            FoxFunction function = new FoxFunction(method, environment);
-            methods.put(method.name.lexeme, function);
+            FoxFunction function = new FoxFunction(method, capture(method));
+            methods.put(method.name.symbol, function);
         }
         FoxClass klass = new FoxClass(stmt.name.lexeme, (FoxClass) superclass, methods);
 
-        if (superclass != null) {
-            environment = environment.enclosing;
+        if (stmt.slot < 0) {
+            globals.assign(stmt.name, klass);
+        } else if (cell != null) {
+            cell.setValue(klass);
+        } else {
+            frame[stmt.slot] = klass;
         }
-
-        environment.assign(stmt.name, klass);
         return null;
     }
 
     @Override
     public Void visitContinueStmt(Stmt.Continue stmt) {
-        return null;
+        throw LoopControl.CONTINUE;
     }
 
     @Override
@@ -285,10 +713,81 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        FoxIterator iterator = iterator(stmt, evaluate(stmt.iterable));
+        try {
+            for (Object element = iterator.next(this); element != FoxIterator.DONE; element = iterator.next(this)) {
+                frame[stmt.slot] = stmt.captured ? new DefinedVariable(element, true) : element;
+                try {
+                    execute(stmt.body);
+                } catch (LoopControl control) {
+                    if (control == LoopControl.BREAK) break;
+                }
+                if (--fuel <= 0) safepoint(stmt.line);
+            }
+        } catch (NativeError error) {
+            // Thrown by the iterator itself, the body converts its own
+            throw new RuntimeError(stmt.name, error.getMessage());
+        } finally {
+            iterator.close();
+        }
+        return null;
+    }
+
+    private FoxIterator iterator(Stmt.ForIn stmt, Object iterable) {
+        return switch (iterable) {
+            case FoxIterable collection -> collection.iterator();
+            case String string -> characters(string);
+            case FoxRope rope -> characters(rope.toString());
+            case FoxInstance instance -> methods(stmt, instance);
+            case null, default -> throw new RuntimeError(stmt.name,
+                    "Can only loop over arrays, maps, strings, generators and instances with hasNext() and next()");
+        };
+    }
+
+    private static FoxIterator characters(String string) {
+        return new FoxIterator() {
+            private int index = 0;
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                return index < string.length() ? String.valueOf(string.charAt(index++)) : DONE;
+            }
+        };
+    }
+
+    /**
+     * Iterates an instance through its {@code hasNext()} and {@code next()} methods.
+     */
+    private FoxIterator methods(Stmt.ForIn stmt, FoxInstance instance) {
+        FoxFunction hasNext = instance.klass.getMethodByName(HAS_NEXT);
+        FoxFunction next = instance.klass.getMethodByName(NEXT);
+        if (hasNext == null || next == null) {
+            throw new RuntimeError(stmt.name, "Can only loop over instances with hasNext() and next() methods");
+        }
+
+        return new FoxIterator() {
+            @Override
+            public Object next(Interpreter interpreter) {
+                if (!isTruthy(hasNext.invoke0(interpreter, instance))) return DONE;
+                return next.invoke0(interpreter, instance);
+            }
+        };
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        FoxFunction function = new FoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function, true);
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.symbol, new FoxFunction(stmt, capture(stmt)), true);
+        } else if (stmt.captured) {
+            // A recursive local function captures its own cell
+            DefinedVariable cell = new DefinedVariable(null, true);
+            frame[stmt.slot] = cell;
+            cell.setValue(new FoxFunction(stmt, capture(stmt)));
+        } else {
+            frame[stmt.slot] = new FoxFunction(stmt, capture(stmt));
+        }
         return null;
     }
 
@@ -316,15 +815,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         Object value = null;
-        if (environment.has(stmt.name.lexeme)) {
-            Fox.warning(stmt.name, "Re-declare an existing variable");
+        if (stmt.slot < 0 && globals.has(stmt.name.symbol)) {
+            reporter.warning(stmt.name, "Re-declare an existing variable");
         }
 
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value, stmt.editable);
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.symbol, value, stmt.editable);
+        } else {
+            frame[stmt.slot] = stmt.captured ? new DefinedVariable(value, stmt.editable) : value;
+        }
         return null;
     }
 
@@ -333,40 +836,134 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         while (isTruthy(evaluate(stmt.condition))) {
             try {
                 execute(stmt.body);
-            } catch (StopIteration ex) {
-                break;
+            } catch (LoopControl control) {
+                if (control == LoopControl.BREAK) break;
             }
+            if (stmt.increment != null) evaluate(stmt.increment);
+            if (--fuel <= 0) safepoint(stmt.line);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = null;
+        if (stmt.value != null) {
+            value = evaluate(stmt.value);
         }
 
+        generator.yield(value);
         return null;
     }
 
-    void interpret(List<Stmt> statements) {
+    void interpret(List<Stmt> statements, int frameSize) {
+        startScript(frameSize);
+        for (Stmt stmt : statements) {
+            if (!interpretTopLevel(stmt, frameSize)) return;
+        }
+    }
+
+    void startScript(int frameSize) {
+        frame = new Object[frameSize];
+        upvalues = NO_UPVALUES;
+    }
+
+    /**
+     * Runs a top-level statement of the script started last. The script frame grows to {@code frameSize} if
+     * the statement needs more slots than the ones before it, see {@link PipelinedFrontEnd}.
+     * Returns false if the script must stop.
+     */
+    boolean interpretTopLevel(Stmt stmt, int frameSize) {
+        if (frame.length < frameSize) frame = Arrays.copyOf(frame, frameSize);
         try {
-            for (Stmt stmt : statements) {
-                execute(stmt);
-            }
+            execute(stmt);
+            return true;
         } catch (Return r) {
-            return;
+            return false;
         } catch (RuntimeError error) {
-            Fox.runtimeError(error);
+            // Keep stdout ahead of the error message
+            out.flush();
+            reporter.runtimeError(error);
         } catch (StackOverflowError error) {
-            Fox.runtimeError(error);
+            out.flush();
+            reporter.runtimeError(error);
         }
+        return false;
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    /**
+     * Makes this interpreter poll {@code script} at safepoints, or stops polling if it is null.
+     */
+    void schedule(FoxScheduler.Script script) {
+        this.script = script;
+        granted = script != null ? script.grant() : Long.MAX_VALUE;
+        fuel = granted;
+    }
+
+    FoxScheduler.Script script() {
+        return script;
+    }
+
+    private void safepoint(List<Stmt> body) {
+        safepoint(body.isEmpty() ? 0 : body.getFirst().line);
+    }
+
+    private void safepoint(int line) {
+        if (script == null) {
+            fuel = Long.MAX_VALUE;
+            return;
+        }
+        granted = script.poll(granted, line);
+        fuel = granted;
+    }
+
+    MemoCache newMemoCache(String name) {
+        MemoCache cache = new MemoCache(name);
+        memoCaches.add(cache);
+        return cache;
+    }
+
+    // Read by FoxDebugger while paused
+    Object[] frame() {
+        return frame;
+    }
+
+    DefinedVariable[] upvalues() {
+        return upvalues;
+    }
+
+    void executeBody(List<Stmt> statements, Object[] frame, DefinedVariable[] upvalues) {
+        if (--fuel <= 0) safepoint(statements);
+        Object[] previousFrame = this.frame;
+        DefinedVariable[] previousUpvalues = this.upvalues;
 
         try {
-            this.environment = environment;
+            this.frame = frame;
+            this.upvalues = upvalues;
 
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } finally {
-            this.environment = previous;
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
+        }
+    }
+
+    /**
+     * Collects the cells a new closure of {@code declaration} captures from the running function.
+     */
+    private DefinedVariable[] capture(Stmt.Function declaration) {
+        int[] captures = declaration.captures;
+        if (captures.length == 0) return NO_UPVALUES;
+
+        DefinedVariable[] cells = new DefinedVariable[captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            int capture = captures[i];
+            cells[i] = capture >= 0 ? (DefinedVariable) frame[capture] : upvalues[-1 - capture];
         }
+        return cells;
     }
 
     private void execute(Stmt statement) {
@@ -377,6 +974,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return switch (object) {
             case null -> false;
             case String s when object.equals("") -> false;
+            case FoxRope rope -> !rope.isEmpty();
             case Boolean b -> b;
             default -> true;
         };
@@ -389,10 +987,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private boolean isEqual(Object first, Object second) {
         if (first == null && second == null) return true;
         if (first == null) return false;
+        if (first instanceof FoxRope || second instanceof FoxRope) {
+            return FoxRope.isString(first) && FoxRope.isString(second) && first.toString().equals(second.toString());
+        }
 
+        // An integer equals the double of the same value
+        if (first instanceof Long integer && second instanceof Double number) return isSameNumber(integer, number);
+        if (first instanceof Double number && second instanceof Long integer) return isSameNumber(integer, number);
         return first.equals(second);
     }
 
+    private static boolean isSameNumber(long integer, double number) {
+        return isInteger(number) && (long) number == integer;
+    }
+
+    /**
+     * Whether {@code number} has an exact long value.
+     */
+    static boolean isInteger(double number) {
+        return number == Math.rint(number) && number >= -0x1p63 && number < 0x1p63;
+    }
+
     private void checkNumberOperand(Token operator, Object value) {
         if (!(value instanceof Double)) {
             throw new RuntimeError(operator, "Operand must be a number");
@@ -400,11 +1015,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private void checkNumberOperand(Token operator, Object first, Object second) {
-        if (first instanceof Double && second instanceof Double) return;
+        if (first instanceof Number && second instanceof Number) return;
         throw new RuntimeError(operator, "Operands must be numbers");
     }
 
-    private String stringify(Object object) {
+    private static double toDouble(Object number) {
+        // Cheaper than the virtual Number.doubleValue()
+        if (number instanceof Double value) return value;
+        return (long) number;
+    }
+
+    /**
+     * The operand of a bitwise operator: an integer, or a double with an exact integer value.
+     */
+    private static long toInteger(Token operator, Object value) {
+        if (value instanceof Long integer) return integer;
+        if (value instanceof Double number && isInteger(number)) return (long) (double) number;
+        throw new RuntimeError(operator, "Operands of '" + operator.lexeme + "' must be integers");
+    }
+
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -417,17 +1047,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
-    public void resolve(Expr expr, int i) {
-        locals.put(expr, i);
-    }
-
-    private Object lookupVariable(Expr expr, Token name) {
-        Integer distance = locals.get(expr);
-
-        if (distance != null) {
-            return environment.getAt(distance, name);
-        } else {
-            return globals.get(name);
+    private Object lookupVariable(Token name, int slot, boolean captured, int upvalue) {
+        if (slot >= 0) {
+            return captured ? ((DefinedVariable) frame[slot]).getValue() : frame[slot];
+        }
+        if (upvalue >= 0) {
+            return upvalues[upvalue].getValue();
         }
+        return globals.get(name);
     }
 }
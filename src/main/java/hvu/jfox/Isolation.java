@@ -0,0 +1,191 @@
+package hvu.jfox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies values from one interpreter into another so that a spawned task never shares mutable state with its
+ * parent. Immutable values (nil, booleans, numbers, strings), natives, channels and task handles are shared
+ * as-is; instances, functions and the cells they close over are cloned, preserving aliasing and cycles within a
+ * single copy. So are classes whose methods close over cells (a class declared in a function, or a subclass);
+ * other classes only see globals, which the task has its own copies of, and are shared. Generators can not be
+ * copied at all.
+ * <p>
+ * The task only gets the globals the code it can reach names: those of every function copied, or of the methods
+ * of every class, followed through the values of the globals copied. Spawning costs what the task may use, not
+ * the size of the parent's heap.
+ */
+final class Isolation {
+    private final Environment sourceGlobals;
+    private final Environment targetGlobals = new Environment();
+    private final Set<Symbol> copiedGlobals = new HashSet<>();
+    private final Map<Object, Object> copies = new IdentityHashMap<>();
+    private final Interpreter child;
+
+    /**
+     * Forks {@code parent}: the child interpreter reports to {@code reporter}, and gets the globals of the values
+     * copied into it.
+     */
+    Isolation(Interpreter parent, ErrorReporter reporter) {
+        this.sourceGlobals = parent.globals;
+        this.child = new Interpreter(reporter, parent.out, targetGlobals);
+        // Tasks count against the budget of the script spawning them
+        if (parent.script() != null) child.schedule(parent.script());
+    }
+
+    Interpreter child() {
+        return child;
+    }
+
+    Object copy(Object value) {
+        return switch (value) {
+            case FoxInstance instance -> copyInstance(instance);
+            case FoxArray array -> copyArray(array);
+            case FoxMap map -> copyMap(map);
+            case FoxFunction function -> copyFunction(function);
+            case FoxClass klass -> copyClass(klass);
+            // Its body would go on running against the parent's globals
+            case FoxGenerator generator -> throw new NativeError("Can not pass a generator to a task.");
+            case null, default -> value;
+        };
+    }
+
+    private FoxInstance copyInstance(FoxInstance instance) {
+        Object existing = copies.get(instance);
+        if (existing != null) return (FoxInstance) existing;
+
+        FoxInstance copy = new FoxInstance(copyClass(instance.klass));
+        copies.put(instance, copy);
+        copy.copyFrom(instance, this::copy);
+        return copy;
+    }
+
+    private FoxArray copyArray(FoxArray array) {
+        Object existing = copies.get(array);
+        if (existing != null) return (FoxArray) existing;
+
+        FoxArray copy = new FoxArray(array.size());
+        copies.put(array, copy);
+        copy.copyFrom(array, this::copy);
+        return copy;
+    }
+
+    private FoxMap copyMap(FoxMap map) {
+        Object existing = copies.get(map);
+        if (existing != null) return (FoxMap) existing;
+
+        FoxMap copy = new FoxMap();
+        copies.put(map, copy);
+        copy.copyFrom(map, this::copy);
+        return copy;
+    }
+
+    private FoxFunction copyFunction(FoxFunction function) {
+        Object existing = copies.get(function);
+        if (existing != null) return (FoxFunction) existing;
+
+        FoxFunction copy = copyWithoutCells(function);
+        copyCells(function, copy);
+        return copy;
+    }
+
+    /**
+     * Registers the copy before its cells are filled in: a recursive local function captures itself.
+     */
+    private FoxFunction copyWithoutCells(FoxFunction function) {
+        DefinedVariable[] upvalues = function.upvalues();
+        DefinedVariable[] copiedUpvalues = upvalues.length == 0 ? upvalues : new DefinedVariable[upvalues.length];
+        FoxInstance receiver = function.receiver();
+        FoxFunction copy = function.withCaptures(copiedUpvalues,
+                receiver == null ? null : copyInstance(receiver));
+        copies.put(function, copy);
+        copyGlobals(function.declaration().body.globalNames());
+        return copy;
+    }
+
+    private void copyCells(FoxFunction function, FoxFunction copy) {
+        DefinedVariable[] upvalues = function.upvalues();
+        DefinedVariable[] copiedUpvalues = copy.upvalues();
+        for (int i = 0; i < upvalues.length; i++) {
+            copiedUpvalues[i] = copyCell(upvalues[i]);
+        }
+    }
+
+    /**
+     * Copies the methods like functions. Their cells are only filled in once the class copy is registered, since
+     * a cell may hold the class itself.
+     */
+    private FoxClass copyClass(FoxClass klass) {
+        Object existing = copies.get(klass);
+        if (existing != null) return (FoxClass) existing;
+        if (!capturesCells(klass)) {
+            copies.put(klass, klass);
+            for (FoxClass current = klass; current != null; current = current.superclass()) {
+                for (FoxFunction method : current.methods().values()) {
+                    copyGlobals(method.declaration().body.globalNames());
+                }
+            }
+            return klass;
+        }
+
+        Map<Symbol, FoxFunction> methods = new HashMap<>();
+        List<FoxFunction> unfilled = new ArrayList<>();
+        klass.methods().forEach((name, method) -> {
+            Object copied = copies.get(method);
+            if (copied == null) {
+                copied = copyWithoutCells(method);
+                unfilled.add(method);
+            }
+            methods.put(name, (FoxFunction) copied);
+        });
+        FoxClass superclass = klass.superclass() == null ? null : copyClass(klass.superclass());
+
+        // Filling in the cells of the superclass may have reached this class already
+        FoxClass copy = (FoxClass) copies.get(klass);
+        if (copy == null) {
+            copy = new FoxClass(klass.getName(), superclass, methods);
+            copies.put(klass, copy);
+        }
+        for (FoxFunction method : unfilled) {
+            copyCells(method, (FoxFunction) copies.get(method));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies each of {@code names} the parent defines that is not copied yet. Marked first, since a function may
+     * name itself.
+     */
+    private void copyGlobals(Set<Symbol> names) {
+        for (Symbol name : names) {
+            if (!copiedGlobals.add(name)) continue;
+
+            DefinedVariable cell = sourceGlobals.cell(name);
+            if (cell != null) targetGlobals.define(name, copy(cell.getValue()), cell.isEditable());
+        }
+    }
+
+    private static boolean capturesCells(FoxClass klass) {
+        for (FoxClass current = klass; current != null; current = current.superclass()) {
+            for (FoxFunction method : current.methods().values()) {
+                if (method.upvalues().length > 0) return true;
+            }
+        }
+        return false;
+    }
+
+    private DefinedVariable copyCell(DefinedVariable cell) {
+        Object existing = copies.get(cell);
+        if (existing != null) return (DefinedVariable) existing;
+
+        DefinedVariable copy = new DefinedVariable(null, cell.isEditable());
+        copies.put(cell, copy);
+        copy.setValue(copy(cell.getValue()));
+        return copy;
+    }
+}
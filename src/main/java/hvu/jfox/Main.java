@@ -4,13 +4,21 @@ import java.io.IOException;
 
 public class Main {
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        FoxOptions options = null;
+        try {
+            options = FoxOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(FoxOptions.USAGE);
             System.exit(64);
-        } else if (args.length == 1) {
-            Fox.runFile(args[0]);
+        }
+
+        if (options.batch != null) {
+            System.exit(FoxBatch.run(options));
+        } else if (options.script != null || options.snapshot != null) {
+            Fox.runFile(options);
         } else {
-            Fox.runPrompt();
+            Fox.runPrompt(options);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package hvu.jfox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of a {@code memo} function, keyed on its arguments and evicted least recently used first. Only calls
+ * whose arguments are all numbers, strings, booleans or nil are cached: other values can change between calls.
+ * Each closure has its own cache, which only its context's thread uses.
+ */
+final class MemoCache {
+    static final int CAPACITY = 10_000;
+    // Tells a cached nil apart from a miss
+    private static final Object NIL = new Object();
+
+    private final String name;
+    private final LinkedHashMap<Object, Object> results = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+            if (size() <= CAPACITY) return false;
+            evictions++;
+            return true;
+        }
+    };
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    MemoCache(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The key for these arguments, or null if the call can not be cached.
+     */
+    static Object key(Object[] arguments) {
+        Object[] key = arguments.clone();
+        for (int i = 0; i < key.length; i++) {
+            switch (key[i]) {
+                case null -> key[i] = NIL;
+                case Long number -> {
+                }
+                case Double number -> {
+                }
+                case Boolean bool -> {
+                }
+                case String string -> {
+                }
+                // Equal ropes may be built differently
+                case FoxRope rope -> key[i] = rope.toString();
+                default -> {
+                    return null;
+                }
+            }
+        }
+        return key.length == 1 ? key[0] : Arrays.asList(key);
+    }
+
+    /**
+     * Returns the cached result, with nil as {@code NIL}, or null on a miss.
+     */
+    Object get(Object key) {
+        Object result = results.get(key);
+        if (result != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return result;
+    }
+
+    void put(Object key, Object result) {
+        results.put(key, result == null ? NIL : result);
+    }
+
+    static Object unwrap(Object result) {
+        return result == NIL ? null : result;
+    }
+
+    @Override
+    public String toString() {
+        return "memo " + name + ": " + hits + " hits, " + misses + " misses, " + evictions + " evicted, "
+                + results.size() + " cached";
+    }
+}
@@ -10,11 +10,23 @@ public class NativeFunctionFactory {
 
         nativeFunctions.put("clock", createClockCallable());
         nativeFunctions.put("print", createPrintCallable());
+        nativeFunctions.put("flush", createFlushCallable());
+        nativeFunctions.put("spawn", createSpawnCallable());
+        nativeFunctions.put("join", createJoinCallable());
+        nativeFunctions.put("channel", createChannelCallable());
+        nativeFunctions.put("send", createSendCallable());
+        nativeFunctions.put("receive", createReceiveCallable());
+        nativeFunctions.put("close", createCloseCallable());
+        nativeFunctions.put("array", createArrayCallable());
+        nativeFunctions.put("map", createMapCallable());
+        nativeFunctions.put("int", createIntCallable());
         return nativeFunctions;
     }
 
     static Set<String> builtInFunctionNames() {
-        return Stream.of("clock", "print").collect(Collectors.toSet());
+        return Stream.of("clock", "print", "flush", "spawn", "join", "channel", "send", "receive", "close", "array", "map",
+                        "int")
+                .collect(Collectors.toSet());
     }
 
     private static FoxCallable createClockCallable() {
@@ -26,6 +38,11 @@ public class NativeFunctionFactory {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
@@ -40,20 +57,39 @@ public class NativeFunctionFactory {
         return new FoxCallable() {
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                FoxOutput out = interpreter.out;
                 int size = arguments.size();
-                for (int i = 0; i < size; i++) {
-                    System.out.print(arguments.get(i));
+                out.lock();
+                try {
+                    for (int i = 0; i < size; i++) {
+                        out.print(arguments.get(i));
 
-                    if (i != size - 1) {
-                        System.out.print(" ");
-                    } else {
-                        System.out.println();
+                        if (i != size - 1) {
+                            out.write(' ');
+                        } else {
+                            out.newline();
+                        }
                     }
+                } finally {
+                    out.unlock();
                 }
 
                 return null;
             }
 
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                FoxOutput out = interpreter.out;
+                out.lock();
+                try {
+                    out.print(value);
+                    out.newline();
+                } finally {
+                    out.unlock();
+                }
+                return null;
+            }
+
             @Override
             public int arity() {
                 return -1;
@@ -65,4 +101,276 @@ public class NativeFunctionFactory {
             }
         };
     }
+
+    private static FoxCallable createFlushCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
+                interpreter.out.flush();
+                return null;
+            }
+
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function flush built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createSpawnCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.isEmpty() || !(arguments.getFirst() instanceof FoxCallable function)) {
+                    throw new NativeError("spawn expects a function as its first argument.");
+                }
+
+                List<Object> functionArguments = arguments.subList(1, arguments.size());
+                if (function.arity() != functionArguments.size() && function.arity() != -1) {
+                    throw new NativeError("Expected " + function.arity() + " arguments for spawned function, got "
+                            + functionArguments.size() + " arguments instead.");
+                }
+
+                return FoxTask.spawn(interpreter, function, functionArguments);
+            }
+
+            @Override
+            public int arity() {
+                return -1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function spawn built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createJoinCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call1(interpreter, arguments.getFirst());
+            }
+
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (!(value instanceof FoxTask task)) {
+                    throw new NativeError("join expects a task.");
+                }
+                return task.join(interpreter);
+            }
+
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function join built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createIntCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call1(interpreter, arguments.getFirst());
+            }
+
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                // Drops the fraction of a float, rounding toward zero
+                return switch (value) {
+                    case Long integer -> integer;
+                    case Double number when Math.abs(number) < 0x1p63 -> (long) (double) number;
+                    case Double number -> throw new NativeError("int expects a float within the integer range.");
+                    case null, default -> throw new NativeError("int expects a number.");
+                };
+            }
+
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function int built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createChannelCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call1(interpreter, arguments.getFirst());
+            }
+
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                long capacity = switch (value) {
+                    case Long integer -> integer;
+                    case Double number when Interpreter.isInteger(number) -> (long) (double) number;
+                    case null, default -> 0;
+                };
+                if (capacity < 1 || capacity > Integer.MAX_VALUE) {
+                    throw new NativeError("Channel capacity must be a positive integer.");
+                }
+                return new FoxChannel((int) capacity);
+            }
+
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function channel built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createSendCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call2(interpreter, arguments.get(0), arguments.get(1));
+            }
+
+            @Override
+            public Object call2(Interpreter interpreter, Object channel, Object value) {
+                channelArgument("send", channel).send(value);
+                return null;
+            }
+
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function send built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createReceiveCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call1(interpreter, arguments.getFirst());
+            }
+
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                return channelArgument("receive", channel).receive();
+            }
+
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function receive built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createCloseCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call1(interpreter, arguments.getFirst());
+            }
+
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                channelArgument("close", channel).close();
+                return null;
+            }
+
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function close built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createArrayCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return FoxArray.of(arguments);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new FoxArray(0);
+            }
+
+            @Override
+            public int arity() {
+                return -1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function array built-in>";
+            }
+        };
+    }
+
+    private static FoxCallable createMapCallable() {
+        return new FoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return FoxMap.of(arguments);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new FoxMap();
+            }
+
+            @Override
+            public int arity() {
+                return -1;
+            }
+
+            @Override
+            public String toString() {
+                return "<Function map built-in>";
+            }
+        };
+    }
+
+    private static FoxChannel channelArgument(String function, Object argument) {
+        if (!(argument instanceof FoxChannel channel)) {
+            throw new NativeError(function + " expects a channel as its first argument.");
+        }
+        return channel;
+    }
 }
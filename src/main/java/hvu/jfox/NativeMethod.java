@@ -0,0 +1,75 @@
+package hvu.jfox;
+
+import java.util.List;
+
+/**
+ * A built-in method already bound to its receiver, returned when reading a property of a built-in object.
+ * Bodies take their arguments directly, so calls through the fixed-arity entry points don't build a list.
+ */
+abstract class NativeMethod implements FoxCallable {
+    interface Body0 {
+        Object call();
+    }
+
+    interface Body1 {
+        Object call(Object first);
+    }
+
+    interface Body2 {
+        Object call(Object first, Object second);
+    }
+
+    private final String name;
+    private final int arity;
+
+    private NativeMethod(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    static NativeMethod of0(String name, Body0 body) {
+        return new NativeMethod(name, 0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return body.call();
+            }
+        };
+    }
+
+    static NativeMethod of1(String name, Body1 body) {
+        return new NativeMethod(name, 1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object first) {
+                return body.call(first);
+            }
+        };
+    }
+
+    static NativeMethod of2(String name, Body2 body) {
+        return new NativeMethod(name, 2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object first, Object second) {
+                return body.call(first, second);
+            }
+        };
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return switch (arity) {
+            case 0 -> call0(interpreter);
+            case 1 -> call1(interpreter, arguments.get(0));
+            default -> call2(interpreter, arguments.get(0), arguments.get(1));
+        };
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<Method " + name + " built-in>";
+    }
+}
@@ -0,0 +1,230 @@
+package hvu.jfox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compiles a large source on every core. A cheap pass over the characters finds where top-level declarations
+ * start, and the source is cut there into chunks that are scanned and parsed in parallel, each with the line
+ * numbers it has in the whole file. Top-level functions and classes without a superclass are resolved in
+ * parallel too: they only see globals, so resolving them touches nothing another chunk could. The remaining
+ * top-level statements may declare locals of the script frame, and are resolved in order once the chunks are
+ * merged.
+ * <p>
+ * Errors of the resolved declarations are collected per chunk and replayed in source order. A chunk with syntax
+ * errors makes the whole source compile again sequentially: the chunks of a broken file may not be cut where its
+ * author meant, and recovering from the first error of a chunk could report errors the whole file does not have.
+ * <p>
+ * Off unless asked for ({@code --parallel-compile}): the split is a guess, a source it gets wrong is compiled
+ * twice, and one core gains nothing.
+ */
+final class ParallelFrontEnd {
+    // Smaller sources, or chunks, are not worth a task
+    static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS_PER_CORE = 4;
+    private static final Set<String> DECLARATIONS = Set.of("function", "class", "var", "const", "memo");
+
+    private record Diagnostic(int statement, int line, String where, String message, LogLevel level) {
+    }
+
+    /**
+     * Remembers diagnostics to report them later. The statement being resolved is set before resolving it.
+     */
+    private static final class Recorder implements ErrorReporter {
+        final List<Diagnostic> diagnostics = new ArrayList<>();
+        int statement = -1;
+
+        @Override
+        public void report(int line, String where, String message, LogLevel level) {
+            diagnostics.add(new Diagnostic(statement, line, where, message, level));
+        }
+
+        // Only the front end reports here, which never runs any code
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+        }
+
+        @Override
+        public void runtimeError(Throwable error) {
+        }
+
+        @Override
+        public boolean hadError() {
+            return !diagnostics.isEmpty();
+        }
+
+        @Override
+        public boolean hadRuntimeError() {
+            return false;
+        }
+
+        @Override
+        public void reset() {
+            diagnostics.clear();
+        }
+    }
+
+    private static final class Chunk {
+        final int start;
+        final int end;
+        final int line;
+        final Recorder syntaxErrors = new Recorder();
+        final Recorder resolveErrors = new Recorder();
+        List<Stmt> statements;
+        // Resolved along with the chunk, by index in statements
+        boolean[] resolved;
+
+        Chunk(int start, int end, int line) {
+            this.start = start;
+            this.end = end;
+            this.line = line;
+        }
+    }
+
+    private ParallelFrontEnd() {
+    }
+
+    /**
+     * Returns null if {@code source} is too small to split, there is only one core or the source has syntax
+     * errors, for the caller to compile it in one piece.
+     */
+    static FoxProgram compile(String source, ErrorReporter reporter, boolean strict, boolean inferTypes,
+                              boolean autoMemo) {
+        if (source.length() < 2 * MIN_CHUNK_SIZE || Runtime.getRuntime().availableProcessors() < 2) return null;
+
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, source.length() / (parallelism * CHUNKS_PER_CORE));
+        List<Chunk> chunks = split(source, chunkSize);
+        if (chunks.size() < 2) return null;
+
+        // One numbering of the globals for every chunk
+        GlobalNames globals = new GlobalNames();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            tasks.add(ForkJoinPool.commonPool().submit(
+                    () -> frontEnd(source, chunk, strict, inferTypes, autoMemo, globals)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+
+        for (Chunk chunk : chunks) {
+            if (chunk.syntaxErrors.hadError()) return null;
+        }
+        if (reporter.hadError()) return new FoxProgram(null, false);
+
+        List<Stmt> statements = new ArrayList<>();
+        Resolver resolver = new Resolver(reporter, inferTypes, autoMemo, globals);
+        for (Chunk chunk : chunks) {
+            List<Diagnostic> diagnostics = chunk.resolveErrors.diagnostics;
+            int next = 0;
+            for (int i = 0; i < chunk.statements.size(); i++) {
+                Stmt statement = chunk.statements.get(i);
+                statements.add(statement);
+                if (!chunk.resolved[i]) {
+                    resolver.resolve(List.of(statement));
+                }
+                // Recorded in statement order
+                for (; next < diagnostics.size() && diagnostics.get(next).statement() == i; next++) {
+                    Diagnostic diagnostic = diagnostics.get(next);
+                    reporter.report(diagnostic.line(), diagnostic.where(), diagnostic.message(), diagnostic.level());
+                }
+            }
+        }
+        FunctionBody.Code script = resolver.script(statements);
+
+        if (reporter.hadError()) return new FoxProgram(null, false);
+        if (inferTypes) TypeInference.analyzeProgram(script, null);
+        return new FoxProgram(script, true);
+    }
+
+    private static void frontEnd(String source, Chunk chunk, boolean strict, boolean inferTypes, boolean autoMemo,
+                                 GlobalNames globals) {
+        TokenBuffer tokens = new Scanner(source, chunk.start, chunk.end, chunk.line, chunk.syntaxErrors).scanTokens();
+        chunk.statements = new Parser(tokens, chunk.syntaxErrors, !strict).parse();
+        chunk.resolved = new boolean[chunk.statements.size()];
+        if (chunk.syntaxErrors.hadError()) return;
+
+        Resolver resolver = new Resolver(chunk.resolveErrors, inferTypes, autoMemo, globals);
+        for (int i = 0; i < chunk.statements.size(); i++) {
+            Stmt statement = chunk.statements.get(i);
+            boolean global = statement instanceof Stmt.Function
+                    || statement instanceof Stmt.Class klass && klass.superclass == null;
+            if (!global) continue;
+
+            chunk.resolveErrors.statement = i;
+            resolver.resolve(List.of(statement));
+            chunk.resolved[i] = true;
+        }
+    }
+
+    /**
+     * Cuts {@code source} into chunks of about {@code chunkSize} characters, each starting with a top-level
+     * declaration. A declaration starts at a top-level {@code function}, {@code class}, {@code var},
+     * {@code const} or {@code memo} right after a semicolon or a closing brace; strings and comments are skipped.
+     */
+    private static List<Chunk> split(String source, int chunkSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        int chunkStart = 0;
+        int chunkLine = 1;
+        int line = 1;
+        int braces = 0;
+        int parens = 0;
+        char last = ';';
+
+        int length = source.length();
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(i);
+            switch (c) {
+                case '\n' -> {
+                    line++;
+                    continue;
+                }
+                case ' ', '\r', '\t' -> {
+                    continue;
+                }
+                case '"' -> {
+                    // Strings have no escapes and may span lines
+                    for (i++; i < length && source.charAt(i) != '"'; i++) {
+                        if (source.charAt(i) == '\n') line++;
+                    }
+                }
+                case '/' -> {
+                    if (i + 1 < length && source.charAt(i + 1) == '/') {
+                        while (i + 1 < length && source.charAt(i + 1) != '\n') i++;
+                        continue;
+                    }
+                }
+                case '{' -> braces++;
+                case '}' -> braces--;
+                case '(' -> parens++;
+                case ')' -> parens--;
+                default -> {
+                    boolean boundary = i - chunkStart >= chunkSize && braces == 0 && parens == 0
+                            && (last == ';' || last == '}') && Character.isLetter(c);
+                    if (boundary && DECLARATIONS.contains(word(source, i))) {
+                        chunks.add(new Chunk(chunkStart, i, chunkLine));
+                        chunkStart = i;
+                        chunkLine = line;
+                    }
+                }
+            }
+            last = c;
+        }
+
+        chunks.add(new Chunk(chunkStart, length, chunkLine));
+        return chunks;
+    }
+
+    private static String word(String source, int start) {
+        int end = start;
+        while (end < source.length() && (Character.isLetterOrDigit(source.charAt(end)) || source.charAt(end) == '_')) {
+            end++;
+        }
+        return source.substring(start, end);
+    }
+}
@@ -25,28 +25,78 @@ public class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    private final TokenBuffer tokens;
+    private final ErrorReporter reporter;
+    // Only brace-match function bodies, see FunctionBody
+    private final boolean deferBodies;
+    private int current;
+    private boolean hadError = false;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenBuffer tokens, ErrorReporter reporter, boolean deferBodies) {
+        this(tokens, 0, reporter, deferBodies);
+    }
+
+    Parser(TokenBuffer tokens, int start, ErrorReporter reporter, boolean deferBodies) {
         this.tokens = tokens;
+        this.current = start;
+        this.reporter = reporter;
+        this.deferBodies = deferBodies;
     }
 
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<Stmt>();
-        while (!isAtEnd()) {
-            statements.add(declaration());
+        while (hasNext()) {
+            statements.add(next());
         }
 
         return statements;
     }
 
+    /**
+     * Whether there is another top-level declaration, for front ends that parse one at a time.
+     */
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    /**
+     * Parses the next top-level declaration, null if it has a syntax error.
+     */
+    Stmt next() {
+        return declaration();
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
+    /**
+     * Parses a deferred function body, starting right after its opening brace.
+     * Returns null if the body has syntax errors.
+     */
+    List<Stmt> parseBlock() {
+        try {
+            List<Stmt> statements = blockStatement();
+            return hadError ? null : statements;
+        } catch (ParseError error) {
+            return null;
+        }
+    }
+
     /* Grammar functions */
     private Stmt declaration() {
         try {
-            if (match(TokenType.CLASS)) return classDeclaration();
-            if (match(TokenType.FUNCTION)) return functionDeclaration(FunctionType.FUNCTION);
-            if (match(TokenType.VAR, TokenType.CONST)) return varDeclaration();
+            int first = tokens.line(current);
+            if (match(TokenType.CLASS)) return at(first, classDeclaration());
+            if (match(TokenType.FUNCTION)) return at(first, functionDeclaration(FunctionType.FUNCTION));
+            if (checkMemo()) {
+                advance();
+                advance();
+                Stmt.Function function = functionDeclaration(FunctionType.FUNCTION);
+                function.memo = true;
+                return at(first, function);
+            }
+            if (match(TokenType.VAR, TokenType.CONST)) return at(first, varDeclaration());
 
             return statement();
         } catch (ParseError error) {
@@ -92,13 +142,19 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect right parenthesis after parameters");
         consume(TokenType.LEFT_BRACE, "Expect '{' before" + type.toString() + "body");
 
+        if (deferBodies) {
+            int start = current;
+            skipBlock();
+            return new Stmt.Function(name, parameters, FunctionBody.deferred(tokens, start, current - 1));
+        }
+
         List<Stmt> body = blockStatement();
 
-        return new Stmt.Function(name, parameters, body);
+        return new Stmt.Function(name, parameters, FunctionBody.parsed(body));
     }
 
     private Stmt varDeclaration() {
-        boolean editable = previous().type != TokenType.CONST;
+        boolean editable = tokens.type(current - 1) != TokenType.CONST;
 
         Token name = consume(TokenType.IDENTIFIER, "Expected variable name.");
         Expr initializer = null;
@@ -111,15 +167,22 @@ public class Parser {
     }
 
     private Stmt statement() {
-        if (match(TokenType.IF)) return ifStatement();
-        if (match(TokenType.FOR)) return forStatement();
-        if (match(TokenType.WHILE)) return whileStatement();
-        if (match(TokenType.RETURN)) return returnStatement();
-        if (match(TokenType.BREAK)) return breakStatement();
-        if (match(TokenType.CONTINUE)) return continueStatement();
-        if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(blockStatement());
+        int first = tokens.line(current);
+        if (match(TokenType.IF)) return at(first, ifStatement());
+        if (match(TokenType.FOR)) return at(first, forStatement());
+        if (match(TokenType.WHILE)) return at(first, whileStatement());
+        if (match(TokenType.RETURN)) return at(first, returnStatement());
+        if (match(TokenType.BREAK)) return at(first, breakStatement());
+        if (match(TokenType.CONTINUE)) return at(first, continueStatement());
+        if (match(TokenType.YIELD)) return at(first, yieldStatement());
+        if (match(TokenType.LEFT_BRACE)) return at(first, new Stmt.Block(blockStatement()));
 
-        return expressionStatement();
+        return at(first, expressionStatement());
+    }
+
+    private static <T extends Stmt> T at(int line, T stmt) {
+        stmt.line = line;
+        return stmt;
     }
 
     private Stmt expressionStatement() {
@@ -145,7 +208,9 @@ public class Parser {
     }
 
     private Stmt forStatement() {
+        int keyword = tokens.line(current - 1);
         consume(TokenType.LEFT_PAREN, "Expect '(' for `for` statement");
+        if (checkIn()) return forInStatement();
 
         Stmt initializer;
         if (match(TokenType.SEMICOLON)) {
@@ -168,13 +233,9 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
 
         Stmt body = statement();
-        if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
-
         if (condition == null) condition = new Expr.Literal(true);
 
-        body = new Stmt.While(condition, body);
+        body = at(keyword, new Stmt.While(condition, body, increment));
 
         if (initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -187,7 +248,16 @@ public class Parser {
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expect ')' for while statement");
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(condition, body, null);
+    }
+
+    private Stmt forInStatement() {
+        Token name = consume(TokenType.IDENTIFIER, "Expect loop variable name");
+        advance();
+        Expr iterable = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+        Stmt body = statement();
+        return new Stmt.ForIn(name, iterable, body);
     }
 
     private List<Stmt> blockStatement() {
@@ -200,6 +270,21 @@ public class Parser {
         return statements;
     }
 
+    private void skipBlock() {
+        int depth = 1;
+        while (!isAtEnd()) {
+            advance();
+            TokenType type = tokens.type(current - 1);
+            if (type == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (type == TokenType.RIGHT_BRACE && --depth == 0) {
+                return;
+            }
+        }
+
+        throw error(peek(), "Expect '}' after block");
+    }
+
     private Stmt returnStatement() {
         Token keyword = previous();
         Expr expr = null;
@@ -210,6 +295,16 @@ public class Parser {
         return new Stmt.Return(keyword, expr);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(TokenType.SEMICOLON)) {
+            value = expression();
+        }
+        consume(TokenType.SEMICOLON, "Expect ';' after yield's expression");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt breakStatement() {
         consume(TokenType.SEMICOLON, "Expect ';' after break");
         return new Stmt.Break(previous());
@@ -235,6 +330,8 @@ public class Parser {
                 return new Expr.Assign(name, value);
             } else if (expr instanceof Expr.Get get) {
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index index) {
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -280,9 +377,58 @@ public class Parser {
     }
 
     private Expr comparison() {
-        Expr expr = term();
+        Expr expr = bitOr();
 
         while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
+            Token operator = previous();
+            Expr right = bitOr();
+            expr = new Expr.Binary(expr, operator, right);
+        }
+
+        return expr;
+    }
+
+    // Bitwise operators bind tighter than comparisons, as in Python, so `x & mask == 0` needs no parentheses
+    private Expr bitOr() {
+        Expr expr = bitXor();
+
+        while (match(TokenType.PIPE)) {
+            Token operator = previous();
+            Expr right = bitXor();
+            expr = new Expr.Binary(expr, operator, right);
+        }
+
+        return expr;
+    }
+
+    private Expr bitXor() {
+        Expr expr = bitAnd();
+
+        while (match(TokenType.CARET)) {
+            Token operator = previous();
+            Expr right = bitAnd();
+            expr = new Expr.Binary(expr, operator, right);
+        }
+
+        return expr;
+    }
+
+    private Expr bitAnd() {
+        Expr expr = shift();
+
+        while (match(TokenType.AMPERSAND)) {
+            Token operator = previous();
+            Expr right = shift();
+            expr = new Expr.Binary(expr, operator, right);
+        }
+
+        return expr;
+    }
+
+    private Expr shift() {
+        Expr expr = term();
+
+        while (match(TokenType.LESS_LESS, TokenType.GREATER_GREATER)) {
             Token operator = previous();
             Expr right = term();
             expr = new Expr.Binary(expr, operator, right);
@@ -306,7 +452,7 @@ public class Parser {
     private Expr factor() {
         Expr expr = unary();
 
-        while (match(TokenType.SLASH, TokenType.STAR)) {
+        while (match(TokenType.SLASH, TokenType.STAR, TokenType.PERCENT)) {
             Token operator = previous();
             Expr right = unary();
             expr = new Expr.Binary(expr, operator, right);
@@ -316,7 +462,7 @@ public class Parser {
     }
 
     private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS)) {
+        if (match(TokenType.BANG, TokenType.MINUS, TokenType.TILDE)) {
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
@@ -333,6 +479,10 @@ public class Parser {
             } else if(match(TokenType.DOT)) {
                 Token name = consume(TokenType.IDENTIFIER, "Expected property's name after '.'");
                 expr = new Expr.Get(expr, name);
+            } else if (match(TokenType.LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(TokenType.RIGHT_BRACKET, "Expect ']' after index");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -363,7 +513,7 @@ public class Parser {
         if (match(TokenType.FALSE)) return new Expr.Literal(false);
         if (match(TokenType.NIL)) return new Expr.Literal(null);
 
-        if (match(TokenType.STRING, TokenType.NUMBER)) return new Expr.Literal(previous().literal);
+        if (match(TokenType.STRING, TokenType.NUMBER)) return new Expr.Literal(tokens.literal(current - 1));
         if (match(TokenType.THIS)) return new Expr.This(previous());
         if (match(TokenType.IDENTIFIER)) return new Expr.Variable(previous());
         if (match(TokenType.LEFT_PAREN)) {
@@ -384,27 +534,43 @@ public class Parser {
     /* End grammar  functions */
 
     /* Utility functions */
+    // Tokens are only created for the AST and error messages, checks read the buffer
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
+    }
+
+    /**
+     * {@code memo} is only a keyword right before {@code function}, so it stays usable as a name.
+     */
+    private boolean checkMemo() {
+        return check(TokenType.IDENTIFIER) && tokens.lexeme(current).equals("memo")
+                && tokens.type(current + 1) == TokenType.FUNCTION;
+    }
+
+    /**
+     * {@code in} is only a keyword right after the variable of a {@code for}, so it stays usable as a name.
+     */
+    private boolean checkIn() {
+        return check(TokenType.IDENTIFIER) && tokens.type(current + 1) == TokenType.IDENTIFIER
+                && tokens.lexeme(current + 1).equals("in");
     }
 
     private boolean check(TokenType type) {
         // TODO: why do we need to check isAtEnd here?
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
     private boolean match(TokenType... types) {
@@ -419,13 +585,17 @@ public class Parser {
     }
 
     private Token consume(TokenType type, String errorMessage) {
-        if (check(type)) return advance();
+        if (check(type)) {
+            advance();
+            return previous();
+        }
 
         throw error(peek(), errorMessage);
     }
 
     private ParseError error(Token token, String message) {
-        Fox.error(token, message);
+        hadError = true;
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -433,9 +603,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) return;
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case TokenType.CLASS:
                 case TokenType.FUNCTION:
                 case TokenType.VAR:
@@ -0,0 +1,108 @@
+package hvu.jfox;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Front end of {@link FoxContext#runPipelined(String)}: scans a source, then parses and resolves it one top-level
+ * declaration at a time on its own thread, handing each one to the interpreter as soon as it is resolved. The
+ * first statements run while the rest of the file is still being parsed.
+ * <p>
+ * Top-level names are globals, looked up when they run, so functions may refer to functions declared further
+ * down exactly as in a whole-program run (and calling one before its declaration ran fails the same way).
+ * Top-level blocks keep their locals in the script frame, which grows as statements come in. A compile error
+ * ends the hand-over: statements before it have already run, the ones after it never do.
+ * <p>
+ * Diagnostics travel through the queue with the statements and are reported on the interpreter's thread, so the
+ * context's reporter is never called from two threads at once.
+ */
+final class PipelinedFrontEnd implements AutoCloseable {
+    /**
+     * A resolved top-level statement, the size the script frame needs from it on, and what compiling it reported.
+     * The last unit has no statement.
+     */
+    record Unit(Stmt statement, int frameSize, List<RecordingReporter.Diagnostic> diagnostics) {
+    }
+
+    // Enough for the front end to run ahead of the interpreter without holding the whole AST in the queue
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final BlockingQueue<Unit> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    // Only used on the interpreter's thread
+    private final ErrorReporter reporter;
+    // Only used on the front end's thread
+    private final RecordingReporter recorder = new RecordingReporter();
+    // Set before the last unit is queued if the front end crashed
+    private volatile Throwable failure;
+
+    PipelinedFrontEnd(String source, ErrorReporter reporter, boolean strict, boolean inferTypes, boolean autoMemo) {
+        this.reporter = reporter;
+        thread = Thread.ofPlatform().daemon().name("fox-front-end")
+                .start(() -> run(source, strict, inferTypes, autoMemo));
+    }
+
+    private void run(String source, boolean strict, boolean inferTypes, boolean autoMemo) {
+        try {
+            try {
+                compile(source, strict, inferTypes, autoMemo);
+            } catch (RuntimeException | Error error) {
+                failure = error;
+            } finally {
+                queue.put(new Unit(null, 0, recorder.take()));
+            }
+        } catch (InterruptedException e) {
+            // The run is over, nobody takes statements any more
+        }
+    }
+
+    private void compile(String source, boolean strict, boolean inferTypes, boolean autoMemo)
+            throws InterruptedException {
+        TokenBuffer tokens = new Scanner(source, recorder).scanTokens();
+        if (recorder.hadError()) return;
+
+        Parser parser = new Parser(tokens, recorder, !strict);
+        Resolver resolver = new Resolver(recorder, inferTypes, autoMemo, new GlobalNames());
+        while (parser.hasNext()) {
+            Stmt statement = parser.next();
+            if (parser.hadError()) return;
+
+            List<Stmt> statements = List.of(statement);
+            resolver.resolve(statements);
+            FunctionBody.Code script = resolver.script(statements);
+            if (resolver.hadError()) return;
+
+            // Top-level statements share no locals, so each can be analyzed on its own
+            if (inferTypes) TypeInference.analyzeProgram(script, null);
+            queue.put(new Unit(statement, script.frameSize(), recorder.take()));
+        }
+    }
+
+    /**
+     * Waits for the next statement and reports what compiling it reported. Returns null once the source is
+     * exhausted or had a compile error.
+     */
+    Unit next() {
+        Unit unit;
+        try {
+            unit = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        RecordingReporter.replay(unit.diagnostics(), reporter);
+        if (unit.statement() != null) return unit;
+
+        if (failure != null) throw new IllegalStateException("The front end failed", failure);
+        return null;
+    }
+
+    /**
+     * Stops the front end if the run ended before the source did.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+}
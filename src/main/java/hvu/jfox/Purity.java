@@ -0,0 +1,127 @@
+package hvu.jfox;
+
+import java.util.List;
+
+/**
+ * Decides whether a function's result depends on nothing but its arguments, so that calls can be memoized.
+ * A pure body only reads and writes its own locals, calls nothing but itself, and creates no functions or
+ * classes: no globals or captured variables (besides the function's own name), no properties or elements, which
+ * may change between calls, and no natives, which all have effects or return fresh mutable values.
+ * <p>
+ * A memoized function that is rebound under its own name keeps calling the new binding when it recurses, but
+ * still answers from its cache for arguments it has seen.
+ */
+final class Purity {
+    private final Stmt.Function function;
+    // Why the body is not pure, null while it is
+    private String impurity;
+    private boolean recursive = false;
+
+    private Purity(Stmt.Function function) {
+        this.function = function;
+    }
+
+    static Purity of(Stmt.Function function, List<Stmt> body) {
+        Purity purity = new Purity(function);
+        purity.check(body);
+        return purity;
+    }
+
+    boolean isPure() {
+        return impurity == null;
+    }
+
+    /**
+     * Null if the body is pure.
+     */
+    String impurity() {
+        return impurity;
+    }
+
+    boolean isRecursive() {
+        return recursive;
+    }
+
+    private void impure(Token where, String reason) {
+        if (impurity == null) impurity = reason + " (line " + where.line + ")";
+    }
+
+    private void check(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            check(statement);
+        }
+    }
+
+    private void check(Stmt statement) {
+        switch (statement) {
+            case Stmt.Block block -> check(block.statements);
+            case Stmt.Expression stmt -> check(stmt.expression);
+            case Stmt.Return stmt -> {
+                if (stmt.expression != null) check(stmt.expression);
+            }
+            case Stmt.Var stmt -> {
+                if (stmt.initializer != null) check(stmt.initializer);
+            }
+            case Stmt.If stmt -> {
+                check(stmt.condition);
+                check(stmt.thenBranch);
+                if (stmt.elseBranch != null) check(stmt.elseBranch);
+            }
+            case Stmt.While stmt -> {
+                check(stmt.condition);
+                check(stmt.body);
+                if (stmt.increment != null) check(stmt.increment);
+            }
+            case Stmt.ForIn stmt -> impure(stmt.name, "loops over an iterable");
+            case Stmt.Yield stmt -> impure(stmt.keyword, "yields");
+            case Stmt.Function declaration -> impure(declaration.name, "declares function '" + declaration.name.lexeme + "'");
+            case Stmt.Class klass -> impure(klass.name, "declares class '" + klass.name.lexeme + "'");
+            default -> {
+            }
+        }
+    }
+
+    private boolean isSelf(Expr.Variable variable) {
+        return variable.slot < 0 && variable.name.lexeme.equals(function.name.lexeme);
+    }
+
+    private void check(Expr expression) {
+        switch (expression) {
+            case Expr.Variable expr -> {
+                if (expr.slot < 0 && !isSelf(expr)) {
+                    impure(expr.name, "reads '" + expr.name.lexeme + "', which is not one of its locals");
+                }
+            }
+            case Expr.Assign expr -> {
+                if (expr.slot < 0) impure(expr.name, "assigns '" + expr.name.lexeme + "', which is not one of its locals");
+                check(expr.value);
+            }
+            case Expr.Call expr -> {
+                if (expr.callee instanceof Expr.Variable callee && isSelf(callee)) {
+                    recursive = true;
+                } else {
+                    impure(expr.paren, "calls something other than itself");
+                }
+                expr.arguments.forEach(this::check);
+            }
+            case Expr.Binary expr -> {
+                check(expr.left);
+                check(expr.right);
+            }
+            case Expr.Logical expr -> {
+                check(expr.left);
+                check(expr.right);
+            }
+            case Expr.Unary expr -> check(expr.right);
+            case Expr.Grouping expr -> check(expr.expression);
+            case Expr.Get expr -> impure(expr.name, "reads property '" + expr.name.lexeme + "'");
+            case Expr.Set expr -> impure(expr.name, "writes property '" + expr.name.lexeme + "'");
+            case Expr.Index expr -> impure(expr.bracket, "reads an element");
+            case Expr.IndexSet expr -> impure(expr.bracket, "writes an element");
+            case Expr.This expr -> impure(expr.keyword, "uses 'this'");
+            case Expr.Super expr -> impure(expr.keyword, "uses 'super'");
+            default -> {
+            }
+        }
+    }
+}
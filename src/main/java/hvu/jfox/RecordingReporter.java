@@ -0,0 +1,65 @@
+package hvu.jfox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the diagnostics of a front end or of a task to report them later, to another reporter or from another
+ * thread. A front end never runs any code, and a task keeps the error it failed with itself, see {@link FoxTask},
+ * so there are no runtime errors to keep.
+ */
+final class RecordingReporter implements ErrorReporter {
+    record Diagnostic(int line, String where, String message, LogLevel level) implements Serializable {
+    }
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private boolean hadError = false;
+
+    @Override
+    public void report(int line, String where, String message, LogLevel level) {
+        diagnostics.add(new Diagnostic(line, where, message, level));
+        hadError = true;
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+    }
+
+    @Override
+    public void runtimeError(Throwable error) {
+    }
+
+    @Override
+    public boolean hadError() {
+        return hadError;
+    }
+
+    @Override
+    public boolean hadRuntimeError() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        diagnostics.clear();
+        hadError = false;
+    }
+
+    /**
+     * Returns the diagnostics reported since the last call, which {@link #hadError()} still counts.
+     */
+    List<Diagnostic> take() {
+        if (diagnostics.isEmpty()) return List.of();
+
+        List<Diagnostic> taken = List.copyOf(diagnostics);
+        diagnostics.clear();
+        return taken;
+    }
+
+    static void replay(List<Diagnostic> diagnostics, ErrorReporter reporter) {
+        for (Diagnostic diagnostic : diagnostics) {
+            reporter.report(diagnostic.line(), diagnostic.where(), diagnostic.message(), diagnostic.level());
+        }
+    }
+}
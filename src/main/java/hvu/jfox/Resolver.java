@@ -1,9 +1,10 @@
 package hvu.jfox;
 
+import java.io.Serializable;
 import java.util.*;
 
 enum FuncType {
-    FUNCTION, INITIALIZER, METHOD, NONE, WHILE
+    FUNCTION, INITIALIZER, METHOD, NONE
 }
 
 enum ClassType {
@@ -12,21 +13,102 @@ enum ClassType {
     NONE
 }
 
+/**
+ * Resolves every variable reference to where it lives at runtime. Globals stay in the globals environment; every
+ * other variable gets a slot in the frame of the function declaring it (the top-level script has a frame too, for
+ * locals of top-level blocks), and blocks allocate nothing. A local that some nested function captures holds a
+ * {@link DefinedVariable} cell in its slot instead. Each function lists the cells it captures in
+ * {@link Stmt.Function#captures} (a slot of the enclosing frame, or {@code -1 - i} for upvalue {@code i} of the
+ * enclosing function), and creating a closure copies those cells into its upvalues.
+ */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter reporter;
+    // Passed on to deferred bodies, which run TypeInference when they compile
+    private final boolean inferTypes;
+    // Memoize every pure recursive function, not just the ones declared `memo`
+    private final boolean autoMemo;
+    // Numbers the globals of the program being resolved, deferred bodies included
+    private final GlobalNames globals;
     private final Set<String> builtInFunctions = NativeFunctionFactory.builtInFunctionNames();
     private FuncType currentFunctionType = FuncType.NONE;
+    // Loops around the statement being resolved, in the current function only
+    private int loops = 0;
+    // Whether the current function yields, and its first `return` with a value, which a generator can not have
+    private boolean yields = false;
+    private Token valueReturn = null;
     private ClassType currentClass = ClassType.NONE;
+    private FunctionScope function = new FunctionScope(null, new HashMap<>(), false);
+    private boolean hadError = false;
+
+    /**
+     * The resolver state around a deferred function body: the upvalue index of every enclosing variable the body
+     * may refer to, which is all the body could see had it been resolved in place.
+     */
+    record Snapshot(Map<String, Integer> upvalues, ClassType currentClass, FuncType type, boolean inferTypes,
+                    boolean autoMemo, GlobalNames globals) implements Serializable {
+    }
+
+    private static class Local {
+        final int slot;
+        // The Stmt.Var, Stmt.Function or Stmt.Class declaring it, null for parameters and synthetic locals
+        final Stmt declaration;
+        boolean defined = false;
+        boolean captured = false;
+        // Expressions reaching it through its slot, told at the end of its scope whether it was captured
+        final List<Expr> references = new ArrayList<>();
+
+        Local(int slot, Stmt declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+    }
+
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final List<Map<String, Local>> scopes = new ArrayList<>();
+        // Becomes Stmt.Function.captures
+        final List<Integer> captures = new ArrayList<>();
+        final Map<String, Integer> upvalues;
+        // A deferred body resolved from a snapshot can not capture anything new
+        final boolean frozen;
+        // Indexed by slot, kept for debuggers
+        final List<String> slotNames = new ArrayList<>();
+        // Globals the function and the functions nested in it name, becomes FunctionBody.Code.globals
+        final Set<Symbol> namedGlobals = new HashSet<>();
+
+        FunctionScope(FunctionScope enclosing, Map<String, Integer> upvalues, boolean frozen) {
+            this.enclosing = enclosing;
+            this.upvalues = upvalues;
+            this.frozen = frozen;
+        }
+
+        Local findLocal(String name) {
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                Local local = scopes.get(i).get(name);
+                if (local != null) return local;
+            }
+            return null;
+        }
+    }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ErrorReporter reporter, boolean inferTypes, boolean autoMemo, GlobalNames globals) {
+        this.reporter = reporter;
+        this.inferTypes = inferTypes;
+        this.autoMemo = autoMemo;
+        this.globals = globals;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
-        resolve(expr);
-        resolveLocal(expr, expr.name);
+        resolve(expr.value);
+        Local local = function.findLocal(expr.name.lexeme);
+        if (local != null) {
+            expr.slot = local.slot;
+            local.references.add(expr);
+        } else {
+            expr.upvalue = resolveUpvalue(function, expr.name.lexeme);
+            if (expr.upvalue < 0) expr.global = global(expr.name);
+        }
         return null;
     }
 
@@ -60,6 +142,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
@@ -82,20 +179,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if(currentClass != ClassType.SUBCLASS) {
-            Fox.error(expr.keyword, "'super' expression must be used inside a subclass");
+            error(expr.keyword, "'super' expression must be used inside a subclass");
         }
 
-        resolveLocal(expr, expr.keyword);
+        // super lives in the scope around the methods, so it is always captured
+        expr.upvalue = resolveUpvalue(function, "super");
+        Local self = function.findLocal("this");
+        if (self != null) {
+            expr.thisSlot = self.slot;
+            self.references.add(expr);
+        } else {
+            expr.thisUpvalue = resolveUpvalue(function, "this");
+        }
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Fox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        Local local = function.findLocal("this");
+        if (local != null) {
+            expr.slot = local.slot;
+            local.references.add(expr);
+        } else {
+            expr.upvalue = resolveUpvalue(function, "this");
+        }
         return null;
     }
 
@@ -107,30 +218,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (builtInFunctions.contains(expr.name.lexeme)) {
-            // Ignore built-in functions
-            return null;
+        if (!function.scopes.isEmpty()) {
+            Local innermost = function.scopes.getLast().get(expr.name.lexeme);
+            if (innermost != null && !innermost.defined) {
+                error(expr.name, "Can not access before initialization");
+            }
         }
 
-        /* NOT A && NOT B
-         * A | B | NOT A | NOT B | NOT A && NOT B
-         * T   T   F       F       F
-         * T   F   F       T       F
-         * F   T   T       F       F
-         * F   F   T       T       T
-         *
-         * NOT(A || B)
-         * A | B | OR | NOT (A || B)
-         * T   T   T     F
-         * T   F   T     F
-         * F   T   T     F
-         * F   F   F     T
-         * */
-        if (!(scopes.isEmpty() || scopes.peek().get(expr.name.lexeme))) {
-            Fox.error(expr.name, "Can not access before initialization");
-        }
-
-        resolveLocal(expr, expr.name);
+        // Names missing from every scope (built-in functions included) stay global
+        Local local = function.findLocal(expr.name.lexeme);
+        if (local != null) {
+            expr.slot = local.slot;
+            local.references.add(expr);
+        } else {
+            expr.upvalue = resolveUpvalue(function, expr.name.lexeme);
+            if (expr.upvalue < 0) expr.global = global(expr.name);
+        }
         return null;
     }
 
@@ -144,8 +247,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
-        if (currentFunctionType != FuncType.WHILE) {
-            Fox.error(stmt.token, "Can not break outside loop");
+        if (loops == 0) {
+            error(stmt.token, "Can not break outside loop");
         }
         return null;
     }
@@ -155,22 +258,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Fox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
             beginScope();
-            scopes.peek().put("super", true);
+            Local superclass = declareSynthetic("super");
+            superclass.captured = true;
+            stmt.superSlot = superclass.slot;
         }
 
-        beginScope();
-        // Why not declare and define right here?
-        scopes.peek().put("this", true);
+        // Methods find `this` in slot 0 of their own frame
         for (Stmt.Function method : stmt.methods) {
             FuncType localFuncType = FuncType.METHOD;
             if (method.name.lexeme.equals("constructor")) {
@@ -180,10 +283,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, localFuncType);
         }
 
-        define(stmt.name);
-
-        endScope();
         if (stmt.superclass != null) endScope();
+        define(stmt.name);
 
         currentClass = enclosingClass;
         return null;
@@ -191,8 +292,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitContinueStmt(Stmt.Continue stmt) {
-        if (currentFunctionType != FuncType.WHILE) {
-            Fox.error(stmt.token, "Can not continue outside loop");
+        if (loops == 0) {
+            error(stmt.token, "Can not continue outside loop");
         }
         return null;
     }
@@ -203,13 +304,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        resolve(stmt.iterable);
+
+        // The loop variable is local to the loop, even at top level
+        beginScope();
+        stmt.slot = declare(stmt.name, stmt);
+        define(stmt.name);
+        loops++;
+        resolve(stmt.body);
+        loops--;
+        endScope();
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         if (builtInFunctions.contains(stmt.name.lexeme)) {
-            Fox.error(stmt.name, "Re-define built-in function");
+            error(stmt.name, "Re-define built-in function");
         }
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FuncType.FUNCTION);
@@ -219,12 +335,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunctionType == FuncType.NONE) {
-            Fox.error(stmt.keyword, "Can not return from top-level code.");
+            error(stmt.keyword, "Can not return from top-level code.");
         }
         if (stmt.expression != null) {
             if (currentFunctionType == FuncType.INITIALIZER) {
-                Fox.error(stmt.keyword, "Can not return from a non-null value from constructor");
+                error(stmt.keyword, "Can not return from a non-null value from constructor");
             }
+            if (valueReturn == null) valueReturn = stmt.keyword;
             resolve(stmt.expression);
         }
         return null;
@@ -243,7 +360,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
+        if (stmt.slot >= 0 && !stmt.editable) {
+            // The cell carries the editable flag that assignments check
+            function.scopes.getLast().get(stmt.name.lexeme).captured = true;
+        }
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -254,37 +375,82 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        FuncType enclosingFunctionType = currentFunctionType;
-        currentFunctionType = FuncType.WHILE;
-
         resolve(stmt.condition);
+        loops++;
         resolve(stmt.body);
+        loops--;
+        if (stmt.increment != null) resolve(stmt.increment);
+        return null;
+    }
 
-        currentFunctionType = enclosingFunctionType;
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (currentFunctionType == FuncType.NONE) {
+            error(stmt.keyword, "Can not yield from top-level code.");
+        } else if (currentFunctionType == FuncType.INITIALIZER) {
+            error(stmt.keyword, "Can not yield from a constructor");
+        }
+        yields = true;
+
+        if (stmt.value != null) resolve(stmt.value);
         return null;
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
+    /**
+     * Returns the slot of the new local, or -1 for a global.
+     */
+    private int declare(Token name, Stmt declaration) {
+        if (function.scopes.isEmpty()) return -1;
+        Map<String, Local> scope = function.scopes.getLast();
         if (scope.containsKey(name.lexeme)) {
-            Fox.error(name, "Already a variable with this name in this scope.");
+            error(name, "Already a variable with this name in this scope.");
         }
 
-        scope.put(name.lexeme, false);
+        Local local = new Local(function.slotNames.size(), declaration);
+        function.slotNames.add(name.lexeme);
+        scope.put(name.lexeme, local);
+        return local.slot;
+    }
+
+    private Local declareSynthetic(String name) {
+        Local local = new Local(function.slotNames.size(), null);
+        function.slotNames.add(name);
+        local.defined = true;
+        function.scopes.getLast().put(name, local);
+        return local;
     }
 
     private void define(Token name) {
-        if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        if (function.scopes.isEmpty()) return;
+        function.scopes.getLast().get(name.lexeme).defined = true;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        function.scopes.add(new HashMap<>());
     }
 
     private void endScope() {
-        scopes.pop();
+        for (Local local : function.scopes.removeLast().values()) {
+            if (!local.captured) continue;
+            for (Expr reference : local.references) {
+                switch (reference) {
+                    case Expr.Variable variable -> variable.captured = true;
+                    case Expr.Assign assign -> assign.captured = true;
+                    case Expr.This self -> self.captured = true;
+                    case Expr.Super call -> call.thisCaptured = true;
+                    default -> throw new IllegalStateException("Unexpected reference " + reference);
+                }
+            }
+            switch (local.declaration) {
+                case Stmt.Var var -> var.captured = true;
+                case Stmt.Function declaration -> declaration.captured = true;
+                case Stmt.Class klass -> klass.captured = true;
+                case Stmt.ForIn loop -> loop.captured = true;
+                case null, default -> {
+                    // Parameters and `this` are recorded in FunctionBody.Code, `super` is always a cell
+                }
+            }
+        }
     }
 
     public void resolve(List<Stmt> statements) {
@@ -293,6 +459,17 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
+    /**
+     * The frame layout of the top-level script, once {@link #resolve(List)} is done with {@code statements}.
+     */
+    FunctionBody.Code script(List<Stmt> statements) {
+        return code(statements, 0, new boolean[0], false);
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
     private void resolve(Stmt statement) {
         statement.accept(this);
     }
@@ -301,28 +478,138 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
 
+    /**
+     * Resolves a deferred function body against the snapshot taken when its declaration was resolved.
+     * Returns null if it reported any errors.
+     */
+    FunctionBody.Code resolveDeferred(Snapshot snapshot, Stmt.Function declaration, List<Stmt> body) {
+        function = new FunctionScope(null, snapshot.upvalues(), true);
+        currentClass = snapshot.currentClass();
+        FunctionBody.Code code = resolveBody(declaration.params, body, snapshot.type());
+        memoize(declaration, body, snapshot.type());
+        return hadError ? null : code;
+    }
+
     private void resolveFunction(Stmt.Function stmt, FuncType type) {
+        FunctionScope enclosing = function;
+        function = new FunctionScope(enclosing, new HashMap<>(), false);
+
+        if (stmt.body.isParsed()) {
+            stmt.body.resolved(resolveBody(stmt.params, stmt.body.statements(), type));
+            memoize(stmt, stmt.body.statements(), type);
+        } else {
+            // Capture everything the body may refer to now, while the enclosing scopes are still open
+            for (String name : stmt.body.referencedNames()) {
+                if (resolveUpvalue(function, name) < 0) function.namedGlobals.add(Symbol.intern(name));
+            }
+            stmt.body.defer(new Snapshot(function.upvalues, currentClass, type, inferTypes, autoMemo,
+                    globals));
+        }
+
+        stmt.captures = function.captures.stream().mapToInt(Integer::intValue).toArray();
+        enclosing.namedGlobals.addAll(function.namedGlobals);
+        function = enclosing;
+    }
+
+    private GlobalNames.Global global(Token name) {
+        function.namedGlobals.add(name.symbol);
+        return globals.global(name.symbol);
+    }
+
+    private FunctionBody.Code resolveBody(List<Token> params, List<Stmt> body, FuncType type) {
         FuncType enclosingFunction = currentFunctionType;
+        int enclosingLoops = loops;
+        boolean enclosingYields = yields;
+        Token enclosingReturn = valueReturn;
         currentFunctionType = type;
+        loops = 0;
+        yields = false;
+        valueReturn = null;
         beginScope();
-        for (Token token : stmt.params) {
-            declare(token);
+
+        List<Local> parameters = new ArrayList<>();
+        if (type == FuncType.METHOD || type == FuncType.INITIALIZER) {
+            parameters.add(declareSynthetic("this"));
+        }
+        int firstParameter = parameters.size();
+        for (Token token : params) {
+            declare(token, null);
             define(token);
+            parameters.add(function.scopes.getLast().get(token.lexeme));
         }
 
-        resolve(stmt.body);
+        resolve(body);
+
+        boolean[] captured = new boolean[parameters.size()];
+        for (int i = 0; i < captured.length; i++) {
+            captured[i] = parameters.get(i).captured;
+        }
         endScope();
+        if (yields && valueReturn != null) {
+            error(valueReturn, "Can not return a value from a generator");
+        }
+        boolean generator = yields;
 
         currentFunctionType = enclosingFunction;
+        loops = enclosingLoops;
+        yields = enclosingYields;
+        valueReturn = enclosingReturn;
+        return code(body, firstParameter, captured, generator);
+    }
+
+    private FunctionBody.Code code(List<Stmt> statements, int firstParameter, boolean[] captured,
+                                   boolean generator) {
+        String[] upvalueNames = new String[function.upvalues.size()];
+        function.upvalues.forEach((name, index) -> upvalueNames[index] = name);
+        return new FunctionBody.Code(statements, function.slotNames.size(), firstParameter, captured,
+                function.slotNames.toArray(new String[0]), upvalueNames, generator,
+                Set.copyOf(function.namedGlobals));
+    }
+
+    /**
+     * Checks that a {@code memo} function is pure, or, with automatic memoization, marks a function {@code memo}
+     * when it is pure and recursive (the functions that recompute the same arguments most).
+     */
+    private void memoize(Stmt.Function declaration, List<Stmt> body, FuncType type) {
+        if (!declaration.memo && (!autoMemo || type != FuncType.FUNCTION)) return;
+
+        Purity purity = Purity.of(declaration, body);
+        if (declaration.memo) {
+            if (!purity.isPure()) {
+                error(declaration.name, "A memo function must be pure, but it " + purity.impurity() + ".");
+            }
+        } else if (purity.isPure() && purity.isRecursive()) {
+            declaration.memo = true;
+        }
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        // Start from the most inner scope.
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+    /**
+     * Finds {@code name} in the functions enclosing {@code scope}, capturing it in every function on the way.
+     * Returns its upvalue index in {@code scope}, or -1 if it is a global.
+     */
+    private int resolveUpvalue(FunctionScope scope, String name) {
+        Integer existing = scope.upvalues.get(name);
+        if (existing != null) return existing;
+        if (scope.frozen || scope.enclosing == null) return -1;
+
+        int capture;
+        Local local = scope.enclosing.findLocal(name);
+        if (local != null) {
+            local.captured = true;
+            capture = local.slot;
+        } else {
+            int upvalue = resolveUpvalue(scope.enclosing, name);
+            if (upvalue < 0) return -1;
+            capture = -1 - upvalue;
         }
+
+        scope.captures.add(capture);
+        scope.upvalues.put(name, scope.captures.size() - 1);
+        return scope.captures.size() - 1;
+    }
+
+    private void error(Token token, String message) {
+        hadError = true;
+        reporter.error(token, message);
     }
 }
@@ -1,45 +1,60 @@
 package hvu.jfox;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class Scanner {
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final ErrorReporter reporter;
+    // End of the range being scanned
+    private final int end;
+    private final TokenBuffer tokens;
 
     private int start = 0; // First char of the lexeme
     private int current = 0; // Current char to be considered
     private int line = 1; // Line of current char
 
-    private static final Map<String, TokenType> keywords = new HashMap<String, TokenType>() {{
-        put("and", TokenType.AND);
-        put("class", TokenType.CLASS);
-        put("else", TokenType.ELSE);
-        put("false", TokenType.FALSE);
-        put("for", TokenType.FOR);
-        put("function", TokenType.FUNCTION);
-        put("if", TokenType.IF);
-        put("nil", TokenType.NIL);
-        put("or", TokenType.OR);
-        put("return", TokenType.RETURN);
-        put("super", TokenType.SUPER);
-        put("this", TokenType.THIS);
-        put("true", TokenType.TRUE);
-        put("var", TokenType.VAR);
-        put("const", TokenType.CONST);
-        put("while", TokenType.WHILE);
-        put("break", TokenType.BREAK);
-        put("continue", TokenType.CONTINUE);
+    // By symbol, so that looking an identifier up needs no string of it
+    private static final Map<Symbol, TokenType> keywords = new HashMap<Symbol, TokenType>() {{
+        put(Symbol.intern("and"), TokenType.AND);
+        put(Symbol.intern("class"), TokenType.CLASS);
+        put(Symbol.intern("else"), TokenType.ELSE);
+        put(Symbol.intern("false"), TokenType.FALSE);
+        put(Symbol.intern("for"), TokenType.FOR);
+        put(Symbol.intern("function"), TokenType.FUNCTION);
+        put(Symbol.intern("if"), TokenType.IF);
+        put(Symbol.intern("nil"), TokenType.NIL);
+        put(Symbol.intern("or"), TokenType.OR);
+        put(Symbol.intern("return"), TokenType.RETURN);
+        put(Symbol.intern("super"), TokenType.SUPER);
+        put(Symbol.intern("this"), TokenType.THIS);
+        put(Symbol.intern("true"), TokenType.TRUE);
+        put(Symbol.intern("var"), TokenType.VAR);
+        put(Symbol.intern("const"), TokenType.CONST);
+        put(Symbol.intern("while"), TokenType.WHILE);
+        put(Symbol.intern("break"), TokenType.BREAK);
+        put(Symbol.intern("continue"), TokenType.CONTINUE);
+        put(Symbol.intern("yield"), TokenType.YIELD);
     }};
 
-    public Scanner(String source) {
+    public Scanner(String source, ErrorReporter reporter) {
+        this(source, 0, source.length(), 1, reporter);
+    }
+
+    /**
+     * Scans the part of {@code source} from {@code start} to {@code end}, which begins on line {@code line}.
+     */
+    Scanner(String source, int start, int end, int line, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
+        this.tokens = new TokenBuffer(source);
+        this.current = start;
+        this.end = end;
+        this.line = line;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private char advance() {
@@ -47,12 +62,7 @@ public class Scanner {
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
-    }
-
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(Token.make(type, text, literal, line));
+        tokens.add(type, start, current, line);
     }
 
     private boolean match(char expectedChar) {
@@ -68,7 +78,7 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -76,6 +86,10 @@ public class Scanner {
         return c >= '0' && c <= '9';
     }
 
+    private boolean isHexDigit(char c) {
+        return isDigit(c) || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+    }
+
     private boolean isAlpha(char c) {
         return (c >= 'a' && c <= 'z') ||
                 (c >= 'A' && c <= 'Z') ||
@@ -93,18 +107,26 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Fox.error(line, "Unterminated string");
+            reporter.error(line, "Unterminated string");
             return;
         }
 
         // Consume the closing "
         advance();
 
-        String value = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, value);
+        addToken(TokenType.STRING);
     }
 
     private void scanNumber() {
+        if (source.charAt(start) == '0' && peek() == 'x' && isHexDigit(peekNext())) {
+            advance();
+            while (isHexDigit(peek())) advance();
+            // 0x and up to 16 digits
+            if (current - start > 18) reporter.error(line, "Hexadecimal literal does not fit in 64 bits");
+            addToken(TokenType.NUMBER);
+            return;
+        }
+
         while (isDigit(peek())) advance();
 
         if (peek() == '.' && isDigit(peekNext())) {
@@ -112,15 +134,12 @@ public class Scanner {
             while (isDigit(peek()));
         }
 
-        String value = source.substring(start, current);
-        addToken(TokenType.NUMBER, Double.parseDouble(value));
+        addToken(TokenType.NUMBER);
     }
 
     private void scanIdentifier() {
         while (isAlphaNumeric(peek())) advance();
-        String value = source.substring(start, current);
-
-        TokenType type = keywords.get(value);
+        TokenType type = keywords.get(Symbol.intern(source, start, current));
 
         if(type == null) type = TokenType.IDENTIFIER;
 
@@ -149,6 +168,12 @@ public class Scanner {
             case '}':
                 addToken(TokenType.RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(TokenType.LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(TokenType.RIGHT_BRACKET);
+                break;
             case ',':
                 addToken(TokenType.COMMA);
                 break;
@@ -167,6 +192,21 @@ public class Scanner {
             case '*':
                 addToken(TokenType.STAR);
                 break;
+            case '%':
+                addToken(TokenType.PERCENT);
+                break;
+            case '&':
+                addToken(TokenType.AMPERSAND);
+                break;
+            case '|':
+                addToken(TokenType.PIPE);
+                break;
+            case '^':
+                addToken(TokenType.CARET);
+                break;
+            case '~':
+                addToken(TokenType.TILDE);
+                break;
             case '!':
                 addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
                 break;
@@ -174,10 +214,18 @@ public class Scanner {
                 addToken(match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
                 break;
             case '<':
-                addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
+                if (match('<')) {
+                    addToken(TokenType.LESS_LESS);
+                } else {
+                    addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
+                }
                 break;
             case '>':
-                addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
+                if (match('>')) {
+                    addToken(TokenType.GREATER_GREATER);
+                } else {
+                    addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
+                }
                 break;
             case '/':
                 if (match('/')) {
@@ -195,19 +243,20 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     scanIdentifier();
                 } else {
-                    Fox.error(line, "Unexpected input character");
+                    reporter.error(line, "Unexpected input character");
                 }
                 break;
         }
     }
 
-    public List<Token> scanTokens() {
+    TokenBuffer scanTokens() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
 
-        this.tokens.add(Token.make(TokenType.EOF, "", null, line));
+        this.tokens.add(TokenType.EOF, current, current, line);
+        this.tokens.trim();
         return this.tokens;
     }
 }
@@ -1,12 +1,23 @@
 package hvu.jfox;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Stmt {
+// Serializable so that functions can be saved in heap snapshots
+abstract class Stmt implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // Line of the statement's first token, set by the Parser
+    int line = 0;
 
     abstract <R> R accept(Visitor<R> visitor);
 
     static class Block extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final List<Stmt> statements;
 
         Block(List<Stmt> statements) {
@@ -20,6 +31,9 @@ abstract class Stmt {
     }
 
     static class Break extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token token;
 
         Break(Token token) {
@@ -33,9 +47,15 @@ abstract class Stmt {
     }
 
     static class Class extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token name;
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
+        int slot = -1;
+        boolean captured = false;
+        int superSlot = -1;
 
         Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
             this.name = name;
@@ -50,6 +70,9 @@ abstract class Stmt {
     }
 
     static class Continue extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token token;
 
         Continue(Token token) {
@@ -63,6 +86,9 @@ abstract class Stmt {
     }
 
     static class Expression extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Expr expression;
 
         Expression(Expr expression) {
@@ -75,12 +101,42 @@ abstract class Stmt {
         }
     }
 
+    static class ForIn extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        final Token name;
+        final Expr iterable;
+        Stmt body;
+        int slot = -1;
+        boolean captured = false;
+
+        ForIn(Token name, Expr iterable, Stmt body) {
+            this.name = name;
+            this.iterable = iterable;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForInStmt(this);
+        }
+    }
+
     static class Function extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token name;
         final List<Token> params;
-        final List<Stmt> body;
-
-        Function(Token name, List<Token> params, List<Stmt> body) {
+        final FunctionBody body;
+        int slot = -1;
+        boolean captured = false;
+        int[] captures = null;
+        TypeInference.Type[] paramTypes = null;
+        boolean memo = false;
+
+        Function(Token name, List<Token> params, FunctionBody body) {
             this.name = name;
             this.params = params;
             this.body = body;
@@ -93,6 +149,9 @@ abstract class Stmt {
     }
 
     static class Return extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token keyword;
         final Expr expression;
 
@@ -108,9 +167,12 @@ abstract class Stmt {
     }
 
     static class If extends Stmt {
-        final Expr condition;
-        final Stmt thenBranch;
-        final Stmt elseBranch;
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Expr condition;
+        Stmt thenBranch;
+        Stmt elseBranch;
 
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
             this.condition = condition;
@@ -125,9 +187,14 @@ abstract class Stmt {
     }
 
     static class Var extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
         final Token name;
         final Expr initializer;
         final boolean editable;
+        int slot = -1;
+        boolean captured = false;
 
         Var(Token name, Expr initializer, boolean editable) {
             this.name = name;
@@ -142,12 +209,17 @@ abstract class Stmt {
     }
 
     static class While extends Stmt {
-        final Expr condition;
-        final Stmt body;
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Expr condition;
+        Stmt body;
+        final Expr increment;
 
-        While(Expr condition, Stmt body) {
+        While(Expr condition, Stmt body, Expr increment) {
             this.condition = condition;
             this.body = body;
+            this.increment = increment;
         }
 
         @Override
@@ -156,6 +228,24 @@ abstract class Stmt {
         }
     }
 
+    static class Yield extends Stmt {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        final Token keyword;
+        final Expr value;
+
+        Yield(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+    }
+
     interface Visitor<R> {
         R visitBlockStmt(Block stmt);
 
@@ -167,6 +257,8 @@ abstract class Stmt {
 
         R visitExpressionStmt(Expression stmt);
 
+        R visitForInStmt(ForIn stmt);
+
         R visitFunctionStmt(Function stmt);
 
         R visitReturnStmt(Return stmt);
@@ -176,5 +268,7 @@ abstract class Stmt {
         R visitVarStmt(Var stmt);
 
         R visitWhileStmt(While stmt);
+
+        R visitYieldStmt(Yield stmt);
     }
 }
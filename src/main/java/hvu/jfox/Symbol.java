@@ -0,0 +1,155 @@
+package hvu.jfox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+
+/**
+ * Interned name of an identifier. The Scanner interns every identifier once, so the runtime tables keyed by
+ * symbols (globals, instance fields, class methods) compare keys by identity and hash a precomputed int
+ * instead of hashing and comparing whole strings. The id is only a hash: tables must compare symbols themselves.
+ * <p>
+ * The table is open-addressed so that the Scanner can look a name up by its range of the source: only a name
+ * seen for the first time allocates a string. Lookups take no lock. An entry is published by a plain store into
+ * the table; a reader that misses it, or sees it half-made, takes the lock and looks again.
+ * <p>
+ * Entries are weak, so a symbol no token, global or instance refers to any more is collected, and a long batch
+ * of scripts does not keep the name of every identifier it ever scanned. Collected entries are dropped whenever
+ * the table would grow.
+ */
+public final class Symbol implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final class Entry extends WeakReference<Symbol> {
+        final int hash;
+
+        Entry(Symbol symbol) {
+            super(symbol);
+            this.hash = symbol.hash;
+        }
+    }
+
+    private static volatile Entry[] table = new Entry[INITIAL_CAPACITY];
+    // Guarded by the class: entries in the table, collected ones included, and the id of the next symbol
+    private static int used = 0;
+    private static int nextId = 0;
+
+    static final Symbol CONSTRUCTOR = intern("constructor");
+
+    final String name;
+    final int id;
+    // name.hashCode(), compared before the characters
+    private final int hash;
+
+    private Symbol(String name, int id, int hash) {
+        this.name = name;
+        this.id = id;
+        this.hash = hash;
+    }
+
+    /**
+     * Ids differ between JVMs, so a deserialized symbol is replaced by this JVM's symbol of the same name.
+     */
+    @Serial
+    private Object readResolve() {
+        return intern(name);
+    }
+
+    static Symbol intern(String name) {
+        return intern(name, 0, name.length(), name.hashCode());
+    }
+
+    /**
+     * Interns the name {@code source} has from {@code start} to {@code end}.
+     */
+    static Symbol intern(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return intern(source, start, end, hash);
+    }
+
+    private static Symbol intern(String source, int start, int end, int hash) {
+        Symbol symbol = find(table, source, start, end, hash);
+        return symbol != null ? symbol : add(source, start, end, hash);
+    }
+
+    private static Symbol find(Entry[] table, String source, int start, int end, int hash) {
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            Entry entry = table[i];
+            if (entry == null) return null;
+            if (entry.hash != hash) continue;
+
+            Symbol symbol = entry.get();
+            if (symbol != null && symbol.name.length() == end - start
+                    && source.regionMatches(start, symbol.name, 0, end - start)) {
+                return symbol;
+            }
+        }
+    }
+
+    private static synchronized Symbol add(String source, int start, int end, int hash) {
+        Entry[] current = table;
+        Symbol symbol = find(current, source, start, end, hash);
+        if (symbol != null) return symbol;
+
+        // At most 3/4 full, so a probe always ends at an empty slot
+        if ((used + 1) * 4 > current.length * 3) {
+            current = rebuild(current);
+            table = current;
+        }
+        symbol = new Symbol(source.substring(start, end), nextId++, hash);
+        insert(current, new Entry(symbol));
+        used++;
+        return symbol;
+    }
+
+    /**
+     * Copies the live entries into a table at most half full by them, which is smaller if most were collected.
+     */
+    private static Entry[] rebuild(Entry[] current) {
+        int live = 0;
+        for (Entry entry : current) {
+            if (entry != null && !entry.refersTo(null)) live++;
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < 2 * (live + 1)) capacity *= 2;
+
+        Entry[] rebuilt = new Entry[capacity];
+        used = 0;
+        for (Entry entry : current) {
+            if (entry != null && !entry.refersTo(null)) {
+                insert(rebuilt, entry);
+                used++;
+            }
+        }
+        return rebuilt;
+    }
+
+    private static void insert(Entry[] table, Entry entry) {
+        int mask = table.length - 1;
+        int i = spread(entry.hash) & mask;
+        while (table[i] != null) i = (i + 1) & mask;
+        table[i] = entry;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
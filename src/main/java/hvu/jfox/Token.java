@@ -1,15 +1,19 @@
 package hvu.jfox;
 
+import java.io.Serial;
+import java.io.Serializable;
+
 enum TokenType {
     // Single-character tokens.
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+    PERCENT, AMPERSAND, PIPE, CARET, TILDE,
 
     // One or two character tokens.
     BANG, BANG_EQUAL,
     EQUAL, EQUAL_EQUAL,
-    GREATER, GREATER_EQUAL,
-    LESS, LESS_EQUAL,
+    GREATER, GREATER_EQUAL, GREATER_GREATER,
+    LESS, LESS_EQUAL, LESS_LESS,
 
     // Literals.
     IDENTIFIER, STRING, NUMBER,
@@ -17,29 +21,45 @@ enum TokenType {
     // Keywords.
     AND, CLASS, ELSE, FALSE, FUNCTION, FOR, IF, NIL, OR,
     PRINT, RETURN, SUPER, THIS, TRUE, VAR, CONST, WHILE,
-    BREAK, CONTINUE,
+    BREAK, CONTINUE, YIELD,
 
     EOF
 }
 
-public class Token {
+/**
+ * A token the AST keeps, for its name or for the line of errors. The Scanner produces a {@link TokenBuffer}
+ * rather than tokens; values of literals only live in the AST's {@link Expr.Literal} nodes.
+ */
+public class Token implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     final TokenType type;
     final String lexeme;
-    final Object literal;
     final int line;
+    // Interned name for identifiers and keywords, null for everything else
+    final Symbol symbol;
+
+    Token(TokenType type, String lexeme, int line) {
+        this(type, lexeme, line, null);
+    }
+
+    Token(TokenType type, Symbol symbol, int line) {
+        this(type, symbol.name, line, symbol);
+    }
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    private Token(TokenType type, String lexeme, int line, Symbol symbol) {
         this.type = type;
         this.lexeme = lexeme;
-        this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
     }
 
     public String toString() {
-        return "[Line: " + line + "]: " + type + " " + lexeme + " " + literal;
+        return "[Line: " + line + "]: " + type + " " + lexeme;
     }
 
-    public static Token make(TokenType type, String lexeme, Object literal, int line) {
-        return new Token(type, lexeme, literal, line);
+    public static Token make(TokenType type, String lexeme, int line) {
+        return new Token(type, lexeme, line);
     }
 }
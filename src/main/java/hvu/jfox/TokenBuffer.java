@@ -0,0 +1,118 @@
+package hvu.jfox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The Scanner's output: the type, source range and line of every token, in parallel arrays over the source.
+ * Most tokens are punctuation the Parser only checks the type of, so a {@link Token} is only created when the
+ * Parser keeps one in the AST. Deferred function bodies hold on to the buffer until they are compiled; after
+ * that the AST only keeps the tokens it names, which share their lexemes.
+ */
+final class TokenBuffer implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private int size = 0;
+
+    TokenBuffer(String source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int end, int line) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = end - start;
+        lines[size] = line;
+        size++;
+    }
+
+    /**
+     * Drops the spare capacity once scanning is done.
+     */
+    void trim() {
+        types = Arrays.copyOf(types, size);
+        starts = Arrays.copyOf(starts, size);
+        lengths = Arrays.copyOf(lengths, size);
+        lines = Arrays.copyOf(lines, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    String lexeme(int index) {
+        return source.substring(starts[index], starts[index] + lengths[index]);
+    }
+
+    Symbol symbol(int index) {
+        return Symbol.intern(source, starts[index], starts[index] + lengths[index]);
+    }
+
+    /**
+     * The value of a string or number token.
+     */
+    Object literal(int index) {
+        return switch (type(index)) {
+            // Without the quotes
+            case STRING -> source.substring(starts[index] + 1, starts[index] + lengths[index] - 1);
+            case NUMBER -> number(lexeme(index));
+            default -> null;
+        };
+    }
+
+    /**
+     * A Long for an integer literal, a Double for one with a fraction or too large for a long.
+     */
+    private static Object number(String lexeme) {
+        try {
+            if (lexeme.startsWith("0x")) {
+                // All 64 bits, so 0x8000000000000000 and up are negative
+                return Long.parseUnsignedLong(lexeme, 2, lexeme.length(), 16);
+            }
+            if (lexeme.indexOf('.') < 0) return Long.parseLong(lexeme);
+        } catch (NumberFormatException e) {
+            // A hexadecimal one is reported by the Scanner
+            if (lexeme.startsWith("0x")) return 0L;
+        }
+        return Double.parseDouble(lexeme);
+    }
+
+    /**
+     * Creates the token at {@code index}. Identifiers and keywords share their symbol's name, and every other
+     * fixed lexeme is interned, so tokens the AST keeps do not each hold a copy of their text.
+     */
+    Token token(int index) {
+        TokenType type = type(index);
+        return switch (type) {
+            case IDENTIFIER, AND, CLASS, ELSE, FALSE, FUNCTION, FOR, IF, NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE,
+                 VAR, CONST, WHILE, BREAK, CONTINUE, YIELD ->
+                    new Token(type, symbol(index), lines[index]);
+            case STRING, NUMBER -> new Token(type, lexeme(index), lines[index]);
+            default -> new Token(type, lexeme(index).intern(), lines[index]);
+        };
+    }
+}
@@ -0,0 +1,434 @@
+package hvu.jfox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Proves which expressions of a function body always evaluate to numbers, strings or booleans, and marks the
+ * operators whose operands are proven numbers ({@link Expr.Binary#numeric}, {@link Expr.Unary#numeric}) so that
+ * the Interpreter runs them on unboxed longs ({@link Expr.Binary#integral}, {@link Expr.Unary#integral}) or
+ * doubles without checking the operands. Only operands of a known kind qualify: a number that may be either kind
+ * takes the checked path, which picks the arithmetic by the values.
+ * <p>
+ * Types come from literals and operators (an arithmetic operator yields a number or throws) and flow through the
+ * locals of the body: a local that no closure captures has the type common to every value assigned to it, found
+ * by iterating to a fixed point. Parameters only get a type when every call is known, which is the case for a
+ * local function that is only ever called directly by the body declaring it; the analysis of that body leaves the
+ * argument types in {@link Stmt.Function#paramTypes}. Globals, properties, captured variables and call results
+ * stay unknown.
+ * <p>
+ * A body is analyzed once it is resolved, and always after the body declaring it: a strict program is analyzed
+ * as a whole, deferred bodies when they compile.
+ */
+final class TypeInference {
+    enum Type {
+        // Nothing assigned yet, only seen while iterating; NUMBER is an integer or a float
+        NONE, INTEGER, FLOAT, NUMBER, STRING, BOOLEAN, UNKNOWN;
+
+        Type join(Type other) {
+            if (this == NONE) return other;
+            if (other == NONE || other == this) return this;
+            return isNumber() && other.isNumber() ? NUMBER : UNKNOWN;
+        }
+
+        boolean isNumber() {
+            return this == INTEGER || this == FLOAT || this == NUMBER;
+        }
+
+        // Proven to be one kind of number
+        boolean isExact() {
+            return this == INTEGER || this == FLOAT;
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    // A value stored in a slot, null for a declaration without initializer
+    private record Write(int slot, Expr value, int line) {
+    }
+
+    private final Stmt.Function function;
+    private final FunctionBody.Code code;
+    private final Type[] types;
+    // Why a slot is unknown, for the dump
+    private final String[] reasons;
+    private final List<Write> writes = new ArrayList<>();
+    private final List<Expr> operators = new ArrayList<>();
+    // Local functions no closure captures, by slot, with the calls naming them directly
+    private final Map<Integer, Stmt.Function> localFunctions = new HashMap<>();
+    private final Map<Integer, List<Expr.Call>> directCalls = new HashMap<>();
+    // Slots read other than as a callee, or assigned
+    private final Set<Integer> escaped = new HashSet<>();
+    private final List<Stmt.Function> nested = new ArrayList<>();
+
+    private TypeInference(Stmt.Function function, FunctionBody.Code code) {
+        this.function = function;
+        this.code = code;
+        this.types = new Type[code.frameSize()];
+        this.reasons = new String[code.frameSize()];
+        Arrays.fill(types, Type.NONE);
+    }
+
+    /**
+     * Analyzes a body that was just resolved, {@code function} being null for the top-level script.
+     */
+    static void analyze(Stmt.Function function, FunctionBody.Code code) {
+        new TypeInference(function, code).run(null);
+    }
+
+    /**
+     * Analyzes the top-level script and every function body already resolved in it, printing what was inferred
+     * to {@code dump} unless it is null.
+     */
+    static void analyzeProgram(FunctionBody.Code script, PrintStream dump) {
+        analyzeTree(null, script, dump);
+    }
+
+    private static void analyzeTree(Stmt.Function function, FunctionBody.Code code, PrintStream dump) {
+        TypeInference inference = new TypeInference(function, code);
+        inference.run(dump);
+        for (Stmt.Function declaration : inference.nested) {
+            FunctionBody.Code nestedCode = declaration.body.resolvedCode();
+            if (nestedCode != null) analyzeTree(declaration, nestedCode, dump);
+        }
+    }
+
+    private void run(PrintStream dump) {
+        declareParameters();
+        collect(code.statements());
+        solve();
+        annotate();
+        if (dump != null) dump(dump);
+    }
+
+    private void declareParameters() {
+        if (function == null) return;
+
+        if (code.firstParameter() > 0) fix(0, "this");
+        for (int i = 0; i < function.params.size(); i++) {
+            int slot = code.firstParameter() + i;
+            if (code.captured()[slot]) {
+                fix(slot, "captured by a closure");
+            } else if (function.paramTypes != null) {
+                types[slot] = function.paramTypes[i];
+                if (types[slot] == Type.UNKNOWN) reasons[slot] = "a caller passes values of different types";
+            } else {
+                fix(slot, "parameter of a function that may be called from anywhere");
+            }
+        }
+    }
+
+    private void fix(int slot, String reason) {
+        types[slot] = Type.UNKNOWN;
+        reasons[slot] = reason;
+    }
+
+    private void collect(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            collect(statement);
+        }
+    }
+
+    private void collect(Stmt statement) {
+        switch (statement) {
+            case Stmt.Block block -> collect(block.statements);
+            case Stmt.Expression stmt -> collect(stmt.expression);
+            case Stmt.Return stmt -> {
+                if (stmt.expression != null) collect(stmt.expression);
+            }
+            case Stmt.If stmt -> {
+                collect(stmt.condition);
+                collect(stmt.thenBranch);
+                if (stmt.elseBranch != null) collect(stmt.elseBranch);
+            }
+            case Stmt.While stmt -> {
+                collect(stmt.condition);
+                collect(stmt.body);
+                if (stmt.increment != null) collect(stmt.increment);
+            }
+            case Stmt.ForIn stmt -> {
+                collect(stmt.iterable);
+                fix(stmt.slot, stmt.captured ? "captured by a closure" : "loop variable of a for-in");
+                collect(stmt.body);
+            }
+            case Stmt.Yield stmt -> {
+                if (stmt.value != null) collect(stmt.value);
+            }
+            case Stmt.Var var -> {
+                if (var.initializer != null) collect(var.initializer);
+                if (var.slot < 0) return;
+                if (var.captured) {
+                    fix(var.slot, var.editable ? "captured by a closure" : "constant, kept in a cell");
+                } else {
+                    writes.add(new Write(var.slot, var.initializer, statement.line));
+                }
+            }
+            case Stmt.Function declaration -> {
+                nested.add(declaration);
+                if (declaration.slot < 0) return;
+                fix(declaration.slot, "holds a function");
+                if (!declaration.captured) localFunctions.put(declaration.slot, declaration);
+            }
+            case Stmt.Class klass -> {
+                nested.addAll(klass.methods);
+                if (klass.slot >= 0) fix(klass.slot, "holds a class");
+                if (klass.superSlot >= 0) fix(klass.superSlot, "super");
+                if (klass.superclass != null) collect(klass.superclass);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void collect(Expr expression) {
+        switch (expression) {
+            case Expr.Variable expr -> {
+                if (expr.slot >= 0) escaped.add(expr.slot);
+            }
+            case Expr.Assign expr -> {
+                collect(expr.value);
+                if (expr.slot >= 0) {
+                    escaped.add(expr.slot);
+                    writes.add(new Write(expr.slot, expr.value, expr.name.line));
+                }
+            }
+            case Expr.Call expr -> {
+                if (expr.callee instanceof Expr.Variable callee && callee.slot >= 0) {
+                    directCalls.computeIfAbsent(callee.slot, slot -> new ArrayList<>()).add(expr);
+                } else {
+                    collect(expr.callee);
+                }
+                expr.arguments.forEach(this::collect);
+            }
+            case Expr.Binary expr -> {
+                operators.add(expr);
+                collect(expr.left);
+                collect(expr.right);
+            }
+            case Expr.Unary expr -> {
+                operators.add(expr);
+                collect(expr.right);
+            }
+            case Expr.Logical expr -> {
+                collect(expr.left);
+                collect(expr.right);
+            }
+            case Expr.Grouping expr -> collect(expr.expression);
+            case Expr.Get expr -> collect(expr.object);
+            case Expr.Set expr -> {
+                collect(expr.object);
+                collect(expr.value);
+            }
+            case Expr.Index expr -> {
+                collect(expr.object);
+                collect(expr.index);
+            }
+            case Expr.IndexSet expr -> {
+                collect(expr.object);
+                collect(expr.index);
+                collect(expr.value);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Joins the type of every write into its slot until nothing changes. Slot types only grow, so this ends
+     * within a few rounds, and at the end every write fits the type of its slot.
+     */
+    private void solve() {
+        boolean changed;
+        do {
+            changed = false;
+            for (Write write : writes) {
+                Type type = write.value() == null ? Type.UNKNOWN : typeOf(write.value());
+                Type joined = types[write.slot()].join(type);
+                if (joined == types[write.slot()]) continue;
+
+                if (joined == Type.UNKNOWN) {
+                    reasons[write.slot()] = write.value() == null ? "declared without a value on line " + write.line()
+                            : "line " + write.line() + " assigns " + describe(type);
+                }
+                types[write.slot()] = joined;
+                changed = true;
+            }
+        } while (changed);
+    }
+
+    private static String describe(Type type) {
+        return type == Type.UNKNOWN ? "a value of unknown type" : "a " + type;
+    }
+
+    private Type typeOf(Expr expression) {
+        return switch (expression) {
+            case Expr.Literal expr -> switch (expr.value) {
+                case Long number -> Type.INTEGER;
+                case Double number -> Type.FLOAT;
+                case String string -> Type.STRING;
+                case Boolean bool -> Type.BOOLEAN;
+                case null, default -> Type.UNKNOWN;
+            };
+            case Expr.Variable expr -> expr.slot >= 0 ? types[expr.slot] : Type.UNKNOWN;
+            case Expr.Grouping expr -> typeOf(expr.expression);
+            case Expr.Assign expr -> typeOf(expr.value);
+            case Expr.Logical expr -> typeOf(expr.left).join(typeOf(expr.right));
+            case Expr.Unary expr -> switch (expr.operator.type) {
+                case MINUS -> negate(typeOf(expr.right));
+                case TILDE -> Type.INTEGER;
+                default -> Type.BOOLEAN;
+            };
+            case Expr.Binary expr -> switch (expr.operator.type) {
+                case MINUS, STAR, PERCENT -> arithmetic(typeOf(expr.left), typeOf(expr.right));
+                case SLASH -> Type.FLOAT;
+                case AMPERSAND, PIPE, CARET, LESS_LESS, GREATER_GREATER -> Type.INTEGER;
+                case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> Type.BOOLEAN;
+                case PLUS -> plus(typeOf(expr.left), typeOf(expr.right));
+                default -> Type.UNKNOWN;
+            };
+            default -> Type.UNKNOWN;
+        };
+    }
+
+    // Two integers give an integer, a float makes it a float, anything else that is not a number throws
+    private static Type arithmetic(Type left, Type right) {
+        if (left == Type.FLOAT || right == Type.FLOAT) return Type.FLOAT;
+        if (left == Type.NONE || right == Type.NONE) return Type.NONE;
+        return left == Type.INTEGER && right == Type.INTEGER ? Type.INTEGER : Type.NUMBER;
+    }
+
+    // `+` adds two numbers or concatenates two strings, anything else throws
+    private static Type plus(Type left, Type right) {
+        if (left.isNumber() || right.isNumber()) return arithmetic(left, right);
+        if (left == Type.STRING || right == Type.STRING) return Type.STRING;
+        return left == Type.NONE && right == Type.NONE ? Type.NONE : Type.UNKNOWN;
+    }
+
+    private static Type negate(Type operand) {
+        return operand.isExact() || operand == Type.NONE ? operand : Type.NUMBER;
+    }
+
+    private static boolean isNumeric(TokenType operator) {
+        return switch (operator) {
+            case PLUS, MINUS, STAR, SLASH, PERCENT, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> true;
+            default -> isBitwise(operator);
+        };
+    }
+
+    private static boolean isBitwise(TokenType operator) {
+        return switch (operator) {
+            case AMPERSAND, PIPE, CARET, LESS_LESS, GREATER_GREATER -> true;
+            default -> false;
+        };
+    }
+
+    private void annotate() {
+        for (Expr operator : operators) {
+            switch (operator) {
+                case Expr.Binary expr -> {
+                    Type left = typeOf(expr.left);
+                    Type right = typeOf(expr.right);
+                    boolean integers = left == Type.INTEGER && right == Type.INTEGER;
+                    TokenType type = expr.operator.type;
+                    // Bitwise operators also take floats with an integer value, which only the checked path converts
+                    expr.numeric = isNumeric(type) && (isBitwise(type) ? integers : left.isExact() && right.isExact());
+                    expr.integral = expr.numeric && integers && type != TokenType.SLASH;
+                }
+                case Expr.Unary expr -> {
+                    Type operand = typeOf(expr.right);
+                    expr.numeric = switch (expr.operator.type) {
+                        case MINUS -> operand.isExact();
+                        case TILDE -> operand == Type.INTEGER;
+                        default -> false;
+                    };
+                    expr.integral = expr.numeric && operand == Type.INTEGER;
+                }
+                default -> {
+                }
+            }
+        }
+
+        localFunctions.forEach((slot, declaration) -> {
+            List<Expr.Call> calls = directCalls.get(slot);
+            if (escaped.contains(slot) || calls == null) {
+                declaration.paramTypes = null;
+                return;
+            }
+
+            Type[] params = new Type[declaration.params.size()];
+            Arrays.fill(params, Type.NONE);
+            for (Expr.Call call : calls) {
+                // A call with the wrong number of arguments throws before running the body
+                if (call.arguments.size() != params.length) continue;
+                for (int i = 0; i < params.length; i++) {
+                    params[i] = params[i].join(typeOf(call.arguments.get(i)));
+                }
+            }
+            for (int i = 0; i < params.length; i++) {
+                if (params[i] == Type.NONE) params[i] = Type.UNKNOWN;
+            }
+            declaration.paramTypes = params;
+        });
+    }
+
+    private void dump(PrintStream out) {
+        out.println(function == null ? "script" : "function " + function.name.lexeme + " (line " + function.name.line + ")");
+
+        String[] names = code.slotNames();
+        for (int slot = 0; slot < types.length; slot++) {
+            Type type = types[slot] == Type.NONE ? Type.UNKNOWN : types[slot];
+            String reason = types[slot] == Type.NONE ? "never assigned" : reasons[slot];
+            out.println("  " + names[slot] + ": " + type + (type == Type.UNKNOWN && reason != null ? ", " + reason : ""));
+        }
+
+        for (Expr operator : operators) {
+            switch (operator) {
+                case Expr.Binary expr -> {
+                    if (!isNumeric(expr.operator.type)) continue;
+                    out.println("  line " + expr.operator.line + ": " + text(expr) + "  "
+                            + (expr.numeric ? "unchecked" : "checked, " + operand("left", expr.left)
+                            + ", " + operand("right", expr.right)));
+                }
+                case Expr.Unary expr -> {
+                    if (expr.operator.type == TokenType.BANG) continue;
+                    out.println("  line " + expr.operator.line + ": " + text(expr) + "  "
+                            + (expr.numeric ? "unchecked" : "checked, " + operand("operand", expr.right)));
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private String operand(String role, Expr operand) {
+        Type type = typeOf(operand);
+        return role + " is " + (type == Type.NONE ? Type.UNKNOWN : type);
+    }
+
+    private static String text(Expr expression) {
+        return switch (expression) {
+            case Expr.Literal expr -> expr.value instanceof String string ? '"' + string + '"'
+                    : Interpreter.stringify(expr.value);
+            case Expr.Variable expr -> expr.name.lexeme;
+            case Expr.Assign expr -> expr.name.lexeme + " = " + text(expr.value);
+            case Expr.Grouping expr -> "(" + text(expr.expression) + ")";
+            case Expr.Binary expr -> text(expr.left) + " " + expr.operator.lexeme + " " + text(expr.right);
+            case Expr.Logical expr -> text(expr.left) + " " + expr.operator.lexeme + " " + text(expr.right);
+            case Expr.Unary expr -> expr.operator.lexeme + text(expr.right);
+            case Expr.Call expr -> text(expr.callee) + "(...)";
+            case Expr.Get expr -> text(expr.object) + "." + expr.name.lexeme;
+            case Expr.Index expr -> text(expr.object) + "[" + text(expr.index) + "]";
+            case Expr.This expr -> "this";
+            default -> "...";
+        };
+    }
+}
@@ -5,24 +5,57 @@ EXPR_TYPES = {
         "args": [
             {"type": "Token", "name": "name"},
             {"type": "Expr", "name": "value"},
-        ]
+        ],
+        "fields": [
+            {"type": "int", "name": "slot", "value": "-1"},
+            # The slot holds a DefinedVariable because a closure captures the local, set by the Resolver
+            {"type": "boolean", "name": "captured", "value": "false"},
+            {"type": "int", "name": "upvalue", "value": "-1"},
+            # Set by the Resolver for a global, see GlobalNames
+            {"type": "GlobalNames.Global", "name": "global", "value": "null"},
+        ],
     },
     "Binary": {
         "args": [
             {"type": "Expr", "name": "left"},
             {"type": "Token", "name": "operator"},
             {"type": "Expr", "name": "right"},
-        ]
+        ],
+        "fields": [
+            # Both operands proven to be numbers, see TypeInference
+            {"type": "boolean", "name": "numeric", "value": "false"},
+            # ... and integers, with an integer result
+            {"type": "boolean", "name": "integral", "value": "false"},
+        ],
     },
     "Call": {
         "args": [
             {"type": "Expr", "name": "callee"},
             {"type": "Token", "name": "paren"},
             {"type": "List<Expr>", "name": "arguments"},
-        ]
+        ],
+        "fields": [
+            # Inline cache filled by the Interpreter, see CallSiteCache
+            {"type": "Object[]", "name": "shapes", "value": "null", "modifiers": "transient "},
+        ],
     },
     "Get": {"args": [{"type": "Expr", "name": "object"}, {"type": "Token", "name": "name"}]},
     "Grouping": {"args": [{"type": "Expr", "name": "expression"}]},
+    "Index": {
+        "args": [
+            {"type": "Expr", "name": "object"},
+            {"type": "Token", "name": "bracket"},
+            {"type": "Expr", "name": "index"},
+        ]
+    },
+    "IndexSet": {
+        "args": [
+            {"type": "Expr", "name": "object"},
+            {"type": "Token", "name": "bracket"},
+            {"type": "Expr", "name": "index"},
+            {"type": "Expr", "name": "value"},
+        ]
+    },
     "Literal": {
         "args": [
             {"type": "Object", "name": "value"},
@@ -30,9 +63,10 @@ EXPR_TYPES = {
     },
     "Logical": {
         "args": [
-            {"type": "Expr", "name": "left"},
+            # Not final, so that instrumentation can wrap them, see FoxCoverage
+            {"type": "Expr", "name": "left", "mutable": True},
             {"type": "Token", "name": "operator"},
-            {"type": "Expr", "name": "right"},
+            {"type": "Expr", "name": "right", "mutable": True},
         ]
     },
     "Set": {
@@ -46,20 +80,44 @@ EXPR_TYPES = {
         "args": [
             {"type": "Token", "name": "keyword"},
             {"type": "Token", "name": "method"},
-        ]
+        ],
+        "fields": [
+            {"type": "int", "name": "upvalue", "value": "-1"},
+            {"type": "int", "name": "thisSlot", "value": "-1"},
+            {"type": "boolean", "name": "thisCaptured", "value": "false"},
+            {"type": "int", "name": "thisUpvalue", "value": "-1"},
+        ],
     },
     "This": {
         "args": [
             {"type": "Token", "name": "keyword"},
-        ]
+        ],
+        "fields": [
+            {"type": "int", "name": "slot", "value": "-1"},
+            {"type": "boolean", "name": "captured", "value": "false"},
+            {"type": "int", "name": "upvalue", "value": "-1"},
+        ],
     },
     "Unary": {
         "args": [
             {"type": "Token", "name": "operator"},
             {"type": "Expr", "name": "right"},
-        ]
+        ],
+        "fields": [
+            {"type": "boolean", "name": "numeric", "value": "false"},
+            {"type": "boolean", "name": "integral", "value": "false"},
+        ],
+    },
+    "Variable": {
+        "args": [{"type": "Token", "name": "name"}],
+        "fields": [
+            {"type": "int", "name": "slot", "value": "-1"},
+            {"type": "boolean", "name": "captured", "value": "false"},
+            {"type": "int", "name": "upvalue", "value": "-1"},
+            # Set by the Resolver for a global, see GlobalNames
+            {"type": "GlobalNames.Global", "name": "global", "value": "null"},
+        ],
     },
-    "Variable": {"args": [{"type": "Token", "name": "name"}]},
 }
 
 
@@ -71,16 +129,41 @@ STMT_TYPES = {
             {"type": "Token", "name": "name"},
             {"type": "Expr.Variable", "name": "superclass"},
             {"type": "List<Stmt.Function>", "name": "methods"}
-        ]
+        ],
+        "fields": [
+            {"type": "int", "name": "slot", "value": "-1"},
+            {"type": "boolean", "name": "captured", "value": "false"},
+            {"type": "int", "name": "superSlot", "value": "-1"},
+        ],
     },
     "Continue": {"args": [{"type": "Token", "name": "token"}]},
     "Expression": {"args": [{"type": "Expr", "name": "expression"}]},
+    "ForIn": {
+        "args": [
+            {"type": "Token", "name": "name"},
+            {"type": "Expr", "name": "iterable"},
+            {"type": "Stmt", "name": "body", "mutable": True},
+        ],
+        "fields": [
+            {"type": "int", "name": "slot", "value": "-1"},
+            {"type": "boolean", "name": "captured", "value": "false"},
+        ],
+    },
     "Function": {
         "args": [
             {"type": "Token", "name": "name"},
             {"type": "List<Token>", "name": "params"},
-            {"type": "List<Stmt>", "name": "body"},
-        ]
+            {"type": "FunctionBody", "name": "body"},
+        ],
+        "fields": [
+            {"type": "int", "name": "slot", "value": "-1"},
+            {"type": "boolean", "name": "captured", "value": "false"},
+            {"type": "int[]", "name": "captures", "value": "null"},
+            # Set when every call site is known, see TypeInference
+            {"type": "TypeInference.Type[]", "name": "paramTypes", "value": "null"},
+            # Declared `memo`, or found pure and recursive with automatic memoization, see Purity
+            {"type": "boolean", "name": "memo", "value": "false"},
+        ],
     },
     "Return": {
         "args": [
@@ -90,9 +173,10 @@ STMT_TYPES = {
     },
     "If": {
         "args": [
-            {"type": "Expr", "name": "condition"},
-            {"type": "Stmt", "name": "thenBranch"},
-            {"type": "Stmt", "name": "elseBranch"},
+            # Not final, so that instrumentation can wrap them, see FoxDebugger and FoxCoverage
+            {"type": "Expr", "name": "condition", "mutable": True},
+            {"type": "Stmt", "name": "thenBranch", "mutable": True},
+            {"type": "Stmt", "name": "elseBranch", "mutable": True},
         ]
     },
     "Var": {
@@ -100,12 +184,24 @@ STMT_TYPES = {
             {"type": "Token", "name": "name"},
             {"type": "Expr", "name": "initializer"},
             {"type": "boolean", "name": "editable"},
-        ]
+        ],
+        "fields": [
+            {"type": "int", "name": "slot", "value": "-1"},
+            {"type": "boolean", "name": "captured", "value": "false"},
+        ],
     },
     "While": {
         "args": [
-            {"type": "Expr", "name": "condition"},
-            {"type": "Stmt", "name": "body"},
+            {"type": "Expr", "name": "condition", "mutable": True},
+            {"type": "Stmt", "name": "body", "mutable": True},
+            # Run after the body, even one left by `continue`; only set for desugared `for` loops
+            {"type": "Expr", "name": "increment"},
+        ]
+    },
+    "Yield": {
+        "args": [
+            {"type": "Token", "name": "keyword"},
+            {"type": "Expr", "name": "value"},
         ]
     },
 }
@@ -116,25 +212,40 @@ GEN_TYPES = [
         "file_name": "Stmt.java",
         "types": STMT_TYPES,
         "base_class_name": "Stmt",
+        "base_fields": [
+            "// Line of the statement's first token, set by the Parser",
+            "int line = 0;",
+        ],
     },
 ]
 
 
+# Fixed, so that editing a class does not silently invalidate saved snapshots; bump FoxSnapshot.VERSION instead
+SERIAL_VERSION_UID = "@Serial private static final long serialVersionUID = 1L;"
+
+
 def define_types(types: dict, base_name: str):
     code = ""
     for class_name, value in types.items():
         code += "static class " + class_name + " extends " + base_name + " {"
+        code += SERIAL_VERSION_UID
         args = value["args"]
 
         args_def = ""
         args_constructor = ""
         constructor = ""
         for arg in args:
-            args_def += f"final {arg['type']} {arg['name']};"
+            modifier = "" if arg.get("mutable") else "final "
+            args_def += f"{modifier}{arg['type']} {arg['name']};"
             args_constructor += f"{arg['type']} {arg['name']}, "
             constructor += f"this.{arg['name']} = {arg['name']};"
 
         code += args_def
+
+        # Annotations filled in by later passes (e.g. Resolver), not part of the constructor
+        for field in value.get("fields", []):
+            code += f"{field.get('modifiers', '')}{field['type']} {field['name']} = {field['value']};"
+
         args_constructor = args_constructor[: len(args_constructor) - 2]
 
         code += class_name + "(" + args_constructor + ") {" + constructor + "}"
@@ -168,13 +279,18 @@ def define_visitors(types: dict, base_name: str):
     return code
 
 
-def define_ast(types, base_name, file_name, package_name="hvu.jfox"):
+def define_ast(types, base_name, file_name, base_fields=(), package_name="hvu.jfox"):
     with open(file_name, "w+") as f:
         f.writelines(
             [
                 "package " + package_name + ";\n",
+                "import java.io.Serial;\n",
+                "import java.io.Serializable;\n",
                 "import java.util.List;\n\n",
-                "abstract class " + base_name + " {\n",
+                "// Serializable so that functions can be saved in heap snapshots\n",
+                "abstract class " + base_name + " implements Serializable {\n",
+                SERIAL_VERSION_UID + "\n",
+                *(field + "\n" for field in base_fields),
                 "\nabstract <R> R accept(Visitor<R> visitor);",
                 define_types(types, base_name),
                 define_visitors(types, base_name),
@@ -185,7 +301,12 @@ def define_ast(types, base_name, file_name, package_name="hvu.jfox"):
 
 def main(base_path: str):
     for t in GEN_TYPES:
-        define_ast(t["types"], t["base_class_name"], f"{base_path}{t['file_name']}")
+        define_ast(
+            t["types"],
+            t["base_class_name"],
+            f"{base_path}{t['file_name']}",
+            t.get("base_fields", ()),
+        )
 
 
 if __name__ == "__main__":